@@ -0,0 +1,191 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.JosmBaseDirectories;
+import org.openstreetmap.josm.data.preferences.JosmUrls;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.spi.preferences.Config;
+
+/**
+ * Synthetic data shared by the benchmarks: ways of a given size in a
+ * standalone {@link DataSet}, cursor positions around them and a map view
+ * showing them, without a running JOSM application.
+ */
+final class BenchmarkFixture {
+
+    /** Distance of neighbour nodes in meters */
+    static final double SEGMENT_LENGTH = 5;
+
+    private static final double CENTER_LAT = 47.5;
+    private static final double CENTER_LON = 19.0;
+    private static final double METERS_PER_DEGREE = 111_320;
+
+    private static boolean initialized;
+
+    /**
+     * Kinds of cursor positions.
+     */
+    enum Cursor {
+        /** uniformly distributed around the way */
+        RANDOM,
+        /** in the middle of the way, about equally far from many nodes and segments */
+        CENTER,
+        /** far beyond the end of the way, approaching nodes one after the other */
+        FAR
+    }
+
+    private BenchmarkFixture() {
+        // Hide default constructor for utils classes
+    }
+
+    /**
+     * Sets up preferences and the projection needed by the plugin code.
+     */
+    static synchronized void initJosm() {
+        if (initialized) {
+            return;
+        }
+        Preferences pref = Preferences.main();
+        Config.setPreferencesInstance(pref);
+        Config.setBaseDirectoriesProvider(JosmBaseDirectories.getInstance());
+        Config.setUrlsProvider(JosmUrls.getInstance());
+        pref.enableSaveOnPut(false);
+        ProjectionRegistry.setProjection(Projections.getProjectionByCode("EPSG:3857"));
+        initialized = true;
+    }
+
+    /**
+     * Creates a way and adds it to the dataset. Open ways meander towards
+     * east, closed ways are circles. Nodes are slightly jittered, so
+     * distances are never exactly equal.
+     *
+     * @param ds the dataset
+     * @param count number of distinct nodes
+     * @param closed create a closed way
+     * @param seed seed of the jitter
+     * @return the way
+     */
+    static Way createWay(DataSet ds, int count, boolean closed, long seed) {
+        Random random = new Random(seed);
+        List<Node> nodes = new ArrayList<>(count + 1);
+        double radius = count * SEGMENT_LENGTH / (2 * Math.PI);
+        for (int i = 0; i < count; i++) {
+            double x;
+            double y;
+            if (closed) {
+                double angle = 2 * Math.PI * i / count;
+                x = radius * Math.cos(angle);
+                y = radius * Math.sin(angle);
+            } else {
+                x = i * SEGMENT_LENGTH;
+                y = 10 * SEGMENT_LENGTH * Math.sin(i / 20.0);
+            }
+            x += (random.nextDouble() - 0.5) * SEGMENT_LENGTH / 4;
+            y += (random.nextDouble() - 0.5) * SEGMENT_LENGTH / 4;
+            Node node = new Node(toLatLon(x, y));
+            ds.addPrimitive(node);
+            nodes.add(node);
+        }
+        if (closed) {
+            nodes.add(nodes.get(0));
+        }
+        Way way = new Way();
+        way.setNodes(nodes);
+        ds.addPrimitive(way);
+        return way;
+    }
+
+    private static LatLon toLatLon(double x, double y) {
+        return new LatLon(CENTER_LAT + y / METERS_PER_DEGREE,
+                CENTER_LON + x / (METERS_PER_DEGREE * Math.cos(Math.toRadians(CENTER_LAT))));
+    }
+
+    /**
+     * Returns the east/north bounds of a way.
+     *
+     * @param way the way
+     * @return the bounds
+     */
+    static ProjectionBounds getBounds(Way way) {
+        ProjectionBounds bounds = new ProjectionBounds(way.getNode(0).getEastNorth());
+        for (Node node : way.getNodes()) {
+            bounds.extend(node.getEastNorth());
+        }
+        return bounds;
+    }
+
+    /**
+     * Creates cursor positions around a way.
+     *
+     * @param way the way
+     * @param cursor kind of positions
+     * @param count number of positions
+     * @param seed seed of random positions
+     * @return the positions
+     */
+    static EastNorth[] createCursorPositions(Way way, Cursor cursor, int count, long seed) {
+        ProjectionBounds bounds = getBounds(way);
+        double width = Math.max(bounds.maxEast - bounds.minEast, SEGMENT_LENGTH);
+        double height = Math.max(bounds.maxNorth - bounds.minNorth, SEGMENT_LENGTH);
+        Random random = new Random(seed);
+        EastNorth[] positions = new EastNorth[count];
+        for (int i = 0; i < count; i++) {
+            switch (cursor) {
+            case CENTER:
+                positions[i] = new EastNorth(bounds.minEast + width / 2 + random.nextDouble(),
+                        bounds.minNorth + height / 2 + random.nextDouble());
+                break;
+            case FAR:
+                positions[i] = new EastNorth(bounds.maxEast + 10 * width,
+                        bounds.minNorth + height * random.nextDouble());
+                break;
+            default:
+                positions[i] = new EastNorth(bounds.minEast - width / 10 + 1.2 * width * random.nextDouble(),
+                        bounds.minNorth - height / 10 + 1.2 * height * random.nextDouble());
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Adds the dataset as the active layer and creates a map view showing
+     * the whole way.
+     *
+     * @param ds the dataset
+     * @param way the way to show
+     * @param width view width in pixels
+     * @param height view height in pixels
+     * @return the map view
+     */
+    static MapView createMapView(DataSet ds, Way way, int width, int height) {
+        OsmDataLayer layer = new OsmDataLayer(ds, "benchmark", null);
+        MainApplication.getLayerManager().addLayer(layer);
+        MainApplication.getLayerManager().setActiveLayer(layer);
+        MapView mv = new MapView(MainApplication.getLayerManager(), null);
+        mv.setBounds(0, 0, width, height);
+        mv.zoomTo(getBounds(way));
+        return mv;
+    }
+
+    /**
+     * Removes all layers added by {@link #createMapView}.
+     */
+    static void removeLayers() {
+        MainApplication.getLayerManager().resetState();
+    }
+}
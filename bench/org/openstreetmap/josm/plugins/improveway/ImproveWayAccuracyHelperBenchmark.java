@@ -0,0 +1,127 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.IWaySegment;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.MapView;
+
+/**
+ * Cost of the searches done for every cursor move: the way under the cursor
+ * in Selecting state, the node to move, the segment to divide and the equal
+ * angle point in Improving state, and of building the geometry snapshot with
+ * its measures when a way is selected.
+ *
+ * Cursor positions cycle through a fixed set, see {@link BenchmarkFixture.Cursor}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ImproveWayAccuracyHelperBenchmark {
+
+    // power of two, positions are chosen by masking
+    private static final int POSITIONS = 1024;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int nodes;
+
+    @Param({"false", "true"})
+    public boolean closed;
+
+    // name of a BenchmarkFixture.Cursor
+    @Param({"RANDOM", "CENTER", "FAR"})
+    public String cursor;
+
+    private Way way;
+    private MapView mv;
+    private WayGeometry geometry;
+    private EastNorth[] positions;
+    private Point[] points;
+    // input of the equal angle search, which does not depend on the cursor
+    private Node[] candidateNodes;
+    private IWaySegment<Node, Way>[] candidateSegments;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        BenchmarkFixture.initJosm();
+        DataSet ds = new DataSet();
+        way = BenchmarkFixture.createWay(ds, nodes, closed, 42);
+        mv = BenchmarkFixture.createMapView(ds, way, 1280, 800);
+        geometry = new WayGeometry(WayNodes.read(way));
+        positions = BenchmarkFixture.createCursorPositions(way,
+                BenchmarkFixture.Cursor.valueOf(cursor), POSITIONS, 43);
+        points = new Point[POSITIONS];
+        candidateNodes = new Node[POSITIONS];
+        candidateSegments = (IWaySegment<Node, Way>[]) new IWaySegment<?, ?>[POSITIONS];
+        Random random = new Random(44);
+        for (int i = 0; i < POSITIONS; i++) {
+            points[i] = mv.getPoint(positions[i]);
+            candidateNodes[i] = way.getNode(random.nextInt(nodes));
+            candidateSegments[i] = new IWaySegment<>(way, random.nextInt(way.getNodesCount() - 1));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixture.removeLayers();
+    }
+
+    private int nextPosition() {
+        next = (next + 1) & (POSITIONS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public Way findWay() {
+        return ImproveWayAccuracyHelper.findWay(mv, points[nextPosition()]);
+    }
+
+    @Benchmark
+    public Node findCandidateNode() {
+        return ImproveWayAccuracyHelper.findCandidateNode(geometry, positions[nextPosition()]);
+    }
+
+    @Benchmark
+    public IWaySegment<Node, Way> findCandidateSegment() {
+        return ImproveWayAccuracyHelper.findCandidateSegment(geometry, positions[nextPosition()]);
+    }
+
+    @Benchmark
+    public EastNorth findEqualAngleENMove() {
+        return ImproveWayAccuracyHelper.findEqualAngleEN(geometry, candidateNodes[nextPosition()], null);
+    }
+
+    @Benchmark
+    public EastNorth findEqualAngleENAdd() {
+        return ImproveWayAccuracyHelper.findEqualAngleEN(geometry, null, candidateSegments[nextPosition()]);
+    }
+
+    @Benchmark
+    public void wayGeometry(Blackhole bh) {
+        bh.consume(new WayGeometry(WayNodes.read(way)));
+    }
+}
@@ -0,0 +1,160 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.MapView;
+
+/**
+ * Frame times of {@link ImproveWayAccuracyAction#paint} rendering into a
+ * {@link BufferedImage}, with a headless map view showing a synthetic way.
+ *
+ * Overlays are computed beforehand by an {@link OverlayWorker} for a set of
+ * cursor positions, frames cycle through them. Only the paint call is
+ * measured. Reports the median and 99th percentile of frame times and the
+ * bytes allocated per frame for each scenario and way size.
+ *
+ * Usage: {@code PaintBenchmark [frames [warmup frames]]}
+ */
+public final class PaintBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 800;
+    private static final int[] SIZES = {100, 1000, 10_000, 50_000};
+    // different cursor positions, snapshots are reused after that
+    private static final int SNAPSHOTS = 64;
+
+    /**
+     * What the mode shows, with the modifiers held.
+     */
+    enum Scenario {
+        SELECT(false, false, false, false),
+        MOVE(false, false, false, false),
+        ADD(true, false, false, false),
+        DELETE(false, true, false, false),
+        MOVE_HELPERS(false, false, true, false),
+        ADD_HELPERS(true, false, true, false),
+        DELETE_HELPERS(false, true, true, false),
+        // Alt+Ctrl, helpers measure the original way
+        ORIGINAL_HELPERS(true, true, true, true);
+
+        final boolean ctrl;
+        final boolean alt;
+        final boolean helpers;
+        final boolean useOriginal;
+
+        Scenario(boolean ctrl, boolean alt, boolean helpers, boolean useOriginal) {
+            this.ctrl = ctrl;
+            this.alt = alt;
+            this.helpers = helpers;
+            this.useOriginal = useOriginal;
+        }
+    }
+
+    private PaintBenchmark() {
+        // Hide default constructor for utils classes
+    }
+
+    /**
+     * Runs all scenarios and prints a table to standard output.
+     *
+     * @param args number of measured frames and number of warmup frames
+     * @throws InterruptedException if interrupted while waiting for overlays
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        BenchmarkFixture.initJosm();
+        ImproveWayAccuracyAction action = new ImproveWayAccuracyAction();
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+        System.out.println(String.format(Locale.ROOT, "%-18s %8s %12s %12s %14s",
+                "scenario", "nodes", "p50 [us]", "p99 [us]", "bytes/frame"));
+        for (int size : SIZES) {
+            for (boolean closed : new boolean[] {false, true}) {
+                DataSet ds = new DataSet();
+                Way way = BenchmarkFixture.createWay(ds, size, closed, 42);
+                MapView mv = BenchmarkFixture.createMapView(ds, way, WIDTH, HEIGHT);
+                Bounds bounds = mv.getRealBounds();
+                EastNorth[] positions = BenchmarkFixture.createCursorPositions(way,
+                        BenchmarkFixture.Cursor.RANDOM, SNAPSHOTS, 43);
+                for (Scenario scenario : Scenario.values()) {
+                    OverlaySnapshot[] snapshots = scenario == Scenario.SELECT ? new OverlaySnapshot[1]
+                            : computeSnapshots(action, mv, way, scenario, positions);
+                    run(action, mv, bounds, image, way, snapshots, warmup);
+                    Result result = run(action, mv, bounds, image, way, snapshots, frames);
+                    System.out.println(String.format(Locale.ROOT, "%-18s %8s %12.1f %12.1f %14d",
+                            scenario, size + (closed ? "c" : ""),
+                            result.p50 / 1000.0, result.p99 / 1000.0, result.bytesPerFrame));
+                }
+                BenchmarkFixture.removeLayers();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static OverlaySnapshot[] computeSnapshots(ImproveWayAccuracyAction action, MapView mv, Way way,
+            Scenario scenario, EastNorth[] positions) throws InterruptedException {
+        AtomicReference<OverlaySnapshot> result = new AtomicReference<>();
+        AtomicReference<CountDownLatch> delivered = new AtomicReference<>();
+        OverlayWorker worker = new OverlayWorker(snapshot -> {
+            result.set(snapshot);
+            delivered.get().countDown();
+        });
+        worker.setWay(way);
+        OverlaySnapshot[] snapshots = new OverlaySnapshot[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            delivered.set(new CountDownLatch(1));
+            worker.request(new OverlayRequest(i + 1, way, positions[i], scenario.ctrl, scenario.alt, false,
+                    false, null, null, null, scenario.helpers, scenario.useOriginal, action.getHelperBounds(mv), null, 0, 0, null));
+            if (!delivered.get().await(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("No overlay computed for " + scenario);
+            }
+            snapshots[i] = result.get();
+        }
+        worker.setWay(null);
+        return snapshots;
+    }
+
+    private static final class Result {
+        long p50;
+        long p99;
+        long bytesPerFrame;
+    }
+
+    private static Result run(ImproveWayAccuracyAction action, MapView mv, Bounds bounds, BufferedImage image,
+            Way way, OverlaySnapshot[] snapshots, int frames) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long[] times = new long[frames];
+        long allocated = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            action.setPaintedState(way, snapshots[frame % snapshots.length]);
+            Graphics2D g = image.createGraphics();
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            action.paint(g, mv, bounds);
+            times[frame] = System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(thread) - bytes;
+            g.dispose();
+        }
+        Arrays.sort(times);
+        Result result = new Result();
+        result.p50 = times[frames / 2];
+        result.p99 = times[Math.min(frames - 1, frames * 99 / 100)];
+        result.bytesPerFrame = allocated / Math.max(1, frames);
+        return result;
+    }
+}
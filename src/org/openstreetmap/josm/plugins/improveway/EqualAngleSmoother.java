@@ -0,0 +1,305 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.MoveCommand;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Smooths all interior nodes of a way at once, the batch version of
+ * {@link ImproveWayAccuracyHelper#findEqualAngleEN}.
+ *
+ * The equal-angle point of a node makes its turn equal to the turns of its
+ * neighbours. Requiring that for all nodes at the same time would bend the
+ * whole way into a single arc, so instead each node moves until its turn is
+ * the mean of the turns of its neighbours, which keeps bends where they are
+ * and removes the zigzag of hand-traced curves. The node is placed on the
+ * perpendicular bisector of its neighbours, so nodes also get evenly spaced.
+ *
+ * The way is read by the constructor only, {@link #solve()} can run on any
+ * thread. The moves are relative, so they must only be applied while
+ * {@link #isUnchanged()}.
+ *
+ * Moving one node changes the turns of its neighbours, so the positions are
+ * solved iteratively from the previous positions until no node moves
+ * noticeably. Nodes shared with other ways, nodes the way passes more than
+ * once and nodes without two neighbours on both sides stay in place. Corners, nodes turning more than 60 degrees,
+ * stay in place too, and split the way like its ends do: their neighbours
+ * are not moved, so the corner keeps its angle.
+ */
+final class EqualAngleSmoother {
+
+    // ways with more nodes are solved by parallel threads
+    private static final int PARALLEL_THRESHOLD = 2000;
+    private static final int MAX_ITERATIONS = 500;
+    // nodes move halfway to their targets in each iteration,
+    // moving them all the way makes neighbouring nodes oscillate
+    private static final double RELAXATION = 0.5;
+    // largest move of a converged iteration relative to the mean segment length
+    private static final double TOLERANCE = 1e-3;
+    // nodes are not moved to sharper turns
+    private static final double MAX_TURN = Math.PI / 2;
+    // nodes turning more are corners, traced right angles are often a few degrees off
+    private static final double CORNER_TURN = Math.PI / 3;
+
+    private final Way way;
+    private final Node[] nodes;
+    private final boolean closed;
+    private final boolean[] movable;
+    private final double[] originalEast;
+    private final double[] originalNorth;
+    private double[] east;
+    private double[] north;
+    private double[] nextEast;
+    private double[] nextNorth;
+    private double meanSegmentLength;
+    private int sharpTurns;
+    private int iterations;
+
+    /**
+     * Prepares smoothing of the way.
+     *
+     * @param way the way to smooth
+     */
+    EqualAngleSmoother(Way way) {
+        this.way = way;
+        closed = way.isClosed();
+        List<Node> wayNodes = way.getNodes();
+        // the closing node of closed ways is the same as the first one
+        int count = closed ? wayNodes.size() - 1 : wayNodes.size();
+        boolean known = !way.isIncomplete();
+        for (int i = 0; i < count && known; i++) {
+            known = wayNodes.get(i).isLatLonKnown();
+        }
+        if (!known) {
+            count = 0;
+        }
+        nodes = wayNodes.subList(0, count).toArray(new Node[0]);
+        movable = new boolean[count];
+        originalEast = new double[count];
+        originalNorth = new double[count];
+        // a node the way passes twice has two solved positions, it would get two moves
+        Set<Node> seen = new HashSet<>();
+        Set<Node> repeated = new HashSet<>();
+        for (Node node : nodes) {
+            if (!seen.add(node)) {
+                repeated.add(node);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            EastNorth en = nodes[i].getEastNorth();
+            originalEast[i] = en.east();
+            originalNorth[i] = en.north();
+            movable[i] = (closed ? count >= 5 : i >= 2 && i < count - 2)
+                    && !repeated.contains(nodes[i]) && !isShared(nodes[i]);
+        }
+        east = originalEast.clone();
+        north = originalNorth.clone();
+        nextEast = east.clone();
+        nextNorth = north.clone();
+
+        boolean[] corner = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int previous = index(i - 1);
+            int next = index(i + 1);
+            corner[i] = previous >= 0 && next < count && Math.abs(turn(previous, i, next)) > CORNER_TURN;
+            if (corner[i] && movable[i]) {
+                sharpTurns++;
+            }
+        }
+        // the targets of the neighbours of a corner would include its turn
+        for (int i = 0; i < count; i++) {
+            if (corner[i]) {
+                for (int d = -1; d <= 1; d++) {
+                    int k = index(i + d);
+                    if (k >= 0 && k < count) {
+                        movable[k] = false;
+                    }
+                }
+            }
+        }
+
+        int segments = closed ? count : count - 1;
+        double sum = 0;
+        for (int s = 0; s < segments; s++) {
+            int next = (s + 1) % count;
+            sum += Math.hypot(east[next] - east[s], north[next] - north[s]);
+        }
+        meanSegmentLength = segments > 0 ? sum / segments : 0;
+    }
+
+    private boolean isShared(Node node) {
+        for (OsmPrimitive referrer : node.getReferrers()) {
+            if (referrer instanceof Way && referrer != way) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Iterates until the nodes stop moving.
+     *
+     * @return {@code true} if the positions converged
+     */
+    boolean solve() {
+        double tolerance = TOLERANCE * meanSegmentLength;
+        while (iterations < MAX_ITERATIONS) {
+            iterations++;
+            IntStream indices = IntStream.range(0, nodes.length);
+            if (nodes.length >= PARALLEL_THRESHOLD) {
+                indices = indices.parallel();
+            }
+            double maxMove = indices.mapToDouble(this::step).max().orElse(0);
+
+            double[] swap = east;
+            east = nextEast;
+            nextEast = swap;
+            swap = north;
+            north = nextNorth;
+            nextNorth = swap;
+
+            if (maxMove <= tolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the next position of a node from the current positions.
+     *
+     * @param i node index
+     * @return distance between the current and the next position
+     */
+    private double step(int i) {
+        nextEast[i] = east[i];
+        nextNorth[i] = north[i];
+        if (!movable[i]) return 0;
+
+        int i11 = index(i - 2);
+        int i12 = index(i - 1);
+        int i21 = index(i + 1);
+        int i22 = index(i + 2);
+        double target = (turn(i11, i12, i) + turn(i, i21, i22)) / 2;
+        double dx = east[i21] - east[i12];
+        double dy = north[i21] - north[i12];
+        double length = Math.hypot(dx, dy);
+        if (Math.abs(target) > MAX_TURN || length == 0) return 0;
+
+        // the node turns left when it is on the right side of the chord
+        double offset = -length / 2 * Math.tan(target / 2);
+        double targetEast = (east[i12] + east[i21]) / 2 - dy / length * offset;
+        double targetNorth = (north[i12] + north[i21]) / 2 + dx / length * offset;
+
+        double moveEast = (targetEast - east[i]) * RELAXATION;
+        double moveNorth = (targetNorth - north[i]) * RELAXATION;
+        double move = Math.hypot(moveEast, moveNorth);
+        // keeps nodes of messy input from jumping over their neighbours
+        if (move > length / 2) {
+            moveEast *= length / 2 / move;
+            moveNorth *= length / 2 / move;
+            move = length / 2;
+        }
+        nextEast[i] = east[i] + moveEast;
+        nextNorth[i] = north[i] + moveNorth;
+        return move;
+    }
+
+    /**
+     * Returns the turn at node {@code b} in radians, positive to the left.
+     */
+    private double turn(int a, int b, int c) {
+        double turn = Math.atan2(north[c] - north[b], east[c] - east[b])
+                - Math.atan2(north[b] - north[a], east[b] - east[a]);
+        if (turn > Math.PI) return turn - 2 * Math.PI;
+        if (turn < -Math.PI) return turn + 2 * Math.PI;
+        return turn;
+    }
+
+    private int index(int i) {
+        return closed ? Math.floorMod(i, nodes.length) : i;
+    }
+
+    /**
+     * Determines if the way and its nodes are still as read by the constructor.
+     *
+     * @return {@code true} if the solved positions can be applied
+     */
+    boolean isUnchanged() {
+        if (nodes.length == 0) {
+            return true;
+        }
+        if (way.isDeleted() || way.isClosed() != closed
+                || way.getNodesCount() != (closed ? nodes.length + 1 : nodes.length)) {
+            return false;
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            EastNorth en = nodes[i].getEastNorth();
+            if (way.getNode(i) != nodes[i] || en == null
+                    || en.east() != originalEast[i] || en.north() != originalNorth[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of iterations done by {@link #solve}.
+     * @return number of iterations
+     */
+    int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the number of corners, nodes turning more than 60 degrees at their
+     * original positions, not counting the ends and shared nodes. These and
+     * their neighbours are not moved.
+     * @return number of sharp turns
+     */
+    int countSharpTurns() {
+        return sharpTurns;
+    }
+
+    /**
+     * Returns the moves of the nodes to their solved positions.
+     *
+     * @return a move command for each node that moves
+     */
+    List<Command> createMoves() {
+        List<Command> moves = new ArrayList<>();
+        double tolerance = TOLERANCE * meanSegmentLength;
+        for (int i = 0; i < nodes.length; i++) {
+            double dx = east[i] - originalEast[i];
+            double dy = north[i] - originalNorth[i];
+            if (Math.hypot(dx, dy) > tolerance) {
+                moves.add(new MoveCommand(nodes[i], dx, dy));
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Returns a command moving the nodes to their solved positions.
+     *
+     * @return the command or {@code null} if no node moves
+     */
+    Command createCommand() {
+        List<Command> moves = createMoves();
+        if (moves.isEmpty()) return null;
+        return new SequenceCommand(trn("Smooth {0} node", "Smooth {0} nodes", moves.size(), moves.size()), moves);
+    }
+}
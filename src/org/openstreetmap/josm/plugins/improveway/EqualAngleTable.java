@@ -0,0 +1,172 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+
+/**
+ * Equal angle points of every node and segment of the target way, see
+ * {@link ImproveWayAccuracyHelper#findEqualAngleEN}. Points are stored as
+ * east and north coordinates in flat arrays, {@code NaN} where there is no
+ * such point.
+ *
+ * The point of a node depends on the two nodes before and after it, the point
+ * of a segment on the node before and after it. Only these entries are
+ * computed again when nodes move.
+ */
+final class EqualAngleTable {
+
+    private final WayGeometry geometry;
+    // east and north of the point replacing node i at 2 * i and 2 * i + 1
+    private double[] nodePoints;
+    // east and north of the point dividing segment s at 2 * s and 2 * s + 1
+    private double[] segmentPoints;
+    private final double[] result = new double[2];
+
+    /**
+     * Computes the points of the whole way.
+     *
+     * @param geometry the geometry of the way
+     */
+    EqualAngleTable(WayGeometry geometry) {
+        this.geometry = geometry;
+        int count = geometry.getNodesCount();
+        nodePoints = new double[2 * count];
+        segmentPoints = new double[2 * Math.max(0, count - 1)];
+        for (int i = 0; i < count; i++) {
+            updateNode(i);
+        }
+        for (int s = 0; s < count - 1; s++) {
+            updateSegment(s);
+        }
+    }
+
+    private void updateNode(int i) {
+        compute(i - 1, i + 1, nodePoints, 2 * i);
+    }
+
+    private void updateSegment(int s) {
+        compute(s, s + 1, segmentPoints, 2 * s);
+    }
+
+    private void compute(int index1, int index2, double[] points, int offset) {
+        // the closing node of closed ways is the same as the first one
+        boolean closed = geometry.isClosed();
+        int realNodesCount = closed ? geometry.getNodesCount() - 1 : geometry.getNodesCount();
+        int i11 = fixIndex(realNodesCount, closed, index1 - 1);
+        int i12 = fixIndex(realNodesCount, closed, index1);
+        int i21 = fixIndex(realNodesCount, closed, index2);
+        int i22 = fixIndex(realNodesCount, closed, index2 + 1);
+        if (i11 >= 0 && i12 >= 0 && i21 >= 0 && i22 >= 0
+                && GeometryKernel.equalAnglePoint(geometry.east(i11), geometry.north(i11),
+                        geometry.east(i12), geometry.north(i12), geometry.east(i21), geometry.north(i21),
+                        geometry.east(i22), geometry.north(i22), result)
+                && !Double.isNaN(result[0]) && !Double.isNaN(result[1])) {
+            points[offset] = result[0];
+            points[offset + 1] = result[1];
+        } else {
+            points[offset] = Double.NaN;
+            points[offset + 1] = Double.NaN;
+        }
+    }
+
+    // returns node index for closed ways using possibly under/overflowed index
+    // returns -1 if not closed and out of range
+    private static int fixIndex(int count, boolean closed, int index) {
+        if (index >= 0 && index < count) return index;
+        if (!closed || count <= 0) return -1;
+        int fixed = index % count;
+        return fixed < 0 ? fixed + count : fixed;
+    }
+
+    /**
+     * Updates the points depending on a node after its coordinates changed.
+     *
+     * @param i index of the moved node
+     */
+    void nodeMoved(int i) {
+        int count = geometry.getNodesCount();
+        // in closed ways, points near the ends depend on nodes at the other end
+        int period = geometry.isClosed() ? count - 1 : 0;
+        for (int d = -2; d <= 2; d++) {
+            update(i + d, d < 2);
+            if (period > 0) {
+                update(i + d - period, d < 2);
+                update(i + d + period, d < 2);
+            }
+        }
+    }
+
+    private void update(int k, boolean segment) {
+        if (k >= 0 && k < geometry.getNodesCount()) {
+            updateNode(k);
+            if (segment && k < geometry.getNodesCount() - 1) {
+                updateSegment(k);
+            }
+        }
+    }
+
+    /**
+     * Updates the points after the nodes between {@code prefix} and
+     * {@code suffix} were replaced. Points of unchanged parts of the way are
+     * kept.
+     *
+     * @param prefix number of unchanged nodes at the start of the way
+     * @param oldCount number of nodes before the change
+     * @param suffix number of unchanged nodes at the end of the way
+     */
+    void nodesReplaced(int prefix, int oldCount, int suffix) {
+        int count = geometry.getNodesCount();
+        int shift = count - oldCount;
+        double[] oldNodePoints = nodePoints;
+        double[] oldSegmentPoints = segmentPoints;
+        nodePoints = new double[2 * count];
+        segmentPoints = new double[2 * Math.max(0, count - 1)];
+
+        // entries at least two nodes away from the replaced ones
+        int head = Math.max(0, Math.min(prefix - 2, count - 1));
+        int tail = Math.max(head, count - suffix + 2);
+        System.arraycopy(oldNodePoints, 0, nodePoints, 0, 2 * head);
+        System.arraycopy(oldSegmentPoints, 0, segmentPoints, 0, 2 * Math.min(head, count - 1));
+        if (tail < count) {
+            System.arraycopy(oldNodePoints, 2 * (tail - shift), nodePoints, 2 * tail, 2 * (count - tail));
+        }
+        if (tail < count - 1) {
+            System.arraycopy(oldSegmentPoints, 2 * (tail - shift), segmentPoints, 2 * tail, 2 * (count - 1 - tail));
+        }
+        for (int i = head; i < Math.min(tail, count); i++) {
+            updateNode(i);
+        }
+        for (int s = head; s < Math.min(tail, count - 1); s++) {
+            updateSegment(s);
+        }
+
+        // points near the ends of closed ways depend on the other end
+        for (int k = 0; k < Math.min(3, count); k++) {
+            update(k, true);
+            update(count - 1 - k, true);
+        }
+        update(count - 4, true);
+    }
+
+    /**
+     * Returns the equal angle point to move a node to.
+     * @param i node index
+     * @return the point or {@code null} if there is none
+     */
+    EastNorth getNodePoint(int i) {
+        return toEastNorth(nodePoints, 2 * i);
+    }
+
+    /**
+     * Returns the equal angle point to divide a segment at.
+     * @param s segment index
+     * @return the point or {@code null} if there is none
+     */
+    EastNorth getSegmentPoint(int s) {
+        return toEastNorth(segmentPoints, 2 * s);
+    }
+
+    private static EastNorth toEastNorth(double[] points, int offset) {
+        return Double.isNaN(points[offset]) ? null : new EastNorth(points[offset], points[offset + 1]);
+    }
+}
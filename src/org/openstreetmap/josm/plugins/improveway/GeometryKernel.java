@@ -0,0 +1,192 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.geom.Line2D;
+
+/**
+ * Geometry functions on primitive coordinates, for the loops run on every
+ * mouse move. They give the same results as their counterparts in
+ * {@link org.openstreetmap.josm.tools.Geometry} and {@code EastNorth}, but
+ * write points into caller supplied arrays of length 2 (x at 0, y at 1)
+ * instead of allocating objects.
+ */
+final class GeometryKernel {
+
+    private GeometryKernel() {
+        // Hide default constructor for utils classes
+    }
+
+    /**
+     * Finds the point of segment ab closest to p, like
+     * {@code Geometry.closestPointToSegment}.
+     *
+     * @param ax x of a
+     * @param ay y of a
+     * @param bx x of b
+     * @param by y of b
+     * @param px x of p
+     * @param py y of p
+     * @param result receives the closest point
+     * @return position of the closest point on the segment, 0 at a and 1 at b
+     */
+    static double closestPointToSegment(double ax, double ay, double bx, double by,
+            double px, double py, double[] result) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double offset = 0;
+        if (dx != 0 || dy != 0) {
+            offset = ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy);
+        }
+        if (offset <= 0) {
+            offset = 0;
+        } else if (offset >= 1) {
+            offset = 1;
+        }
+        result[0] = ax + dx * offset;
+        result[1] = ay + dy * offset;
+        return offset;
+    }
+
+    /**
+     * Finds the intersection of segments p1p2 and p3p4, like
+     * {@code Geometry.getSegmentSegmentIntersection}.
+     *
+     * @param x1 x of p1
+     * @param y1 y of p1
+     * @param x2 x of p2
+     * @param y2 y of p2
+     * @param x3 x of p3
+     * @param y3 y of p3
+     * @param x4 x of p4
+     * @param y4 y of p4
+     * @param result receives the intersection, can be {@code null} if only the test is needed
+     * @return {@code true} if the segments intersect
+     */
+    static boolean segmentSegmentIntersection(double x1, double y1, double x2, double y2,
+            double x3, double y3, double x4, double y4, double[] result) {
+        if (!Line2D.linesIntersect(x1, y1, x2, y2, x3, y3, x4, y4)) return false;
+
+        // (x1,y1) + (x2-x1,y2-y1)*u = (x3,y3) + (x4-x3,y4-y3)*v
+        double a1 = x2 - x1;
+        double b1 = x3 - x4;
+        double c1 = x3 - x1;
+        double a2 = y2 - y1;
+        double b2 = y3 - y4;
+        double c2 = y3 - y1;
+        double det = a1 * b2 - a2 * b1;
+        double uu = b2 * c1 - b1 * c2;
+        double vv = a1 * c2 - a2 * c1;
+        double mag = Math.abs(uu) + Math.abs(vv);
+        if (Math.abs(det) <= 1e-12 * mag) {
+            // parallel lines
+            return false;
+        }
+        double u = uu / det;
+        double v = vv / det;
+        if (u <= -1e-8 || u >= 1 + 1e-8 || v <= -1e-8 || v >= 1 + 1e-8) {
+            return false;
+        }
+        if (result != null) {
+            u = Math.max(0, Math.min(1, u));
+            result[0] = x1 + a1 * u;
+            result[1] = y1 + a2 * u;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the intersection of lines p1p2 and p3p4, like
+     * {@code Geometry.getLineLineIntersection}.
+     *
+     * @param x1 x of p1
+     * @param y1 y of p1
+     * @param x2 x of p2
+     * @param y2 y of p2
+     * @param x3 x of p3
+     * @param y3 y of p3
+     * @param x4 x of p4
+     * @param y4 y of p4
+     * @param result receives the intersection
+     * @return {@code false} if the lines are parallel
+     */
+    static boolean lineLineIntersection(double x1, double y1, double x2, double y2,
+            double x3, double y3, double x4, double y4, double[] result) {
+        // p1 is subtracted from all points to avoid rounding errors of large coordinates
+        double a1 = y2 - y1;
+        double b1 = x1 - x2;
+        double a2 = y4 - y3;
+        double b2 = x3 - x4;
+        double det = a1 * b2 - a2 * b1;
+        if (det == 0) return false;
+        double c2 = (x4 - x1) * (y3 - y1) - (x3 - x1) * (y4 - y1);
+        result[0] = b1 * c2 / det + x1;
+        result[1] = -a1 * c2 / det + y1;
+        return true;
+    }
+
+    /**
+     * Rotates p around a pivot clockwise, like {@code EastNorth.rotate}.
+     *
+     * @param px x of p
+     * @param py y of p
+     * @param cx x of the pivot
+     * @param cy y of the pivot
+     * @param angle angle in radians
+     * @param result receives the rotated point
+     */
+    static void rotate(double px, double py, double cx, double cy, double angle, double[] result) {
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double x = px - cx;
+        double y = py - cy;
+        result[0] = cos * x + sin * y + cx;
+        result[1] = -sin * x + cos * y + cy;
+    }
+
+    /**
+     * Returns the angle of a corner, like {@code Geometry.getCornerAngle}.
+     *
+     * @param ax x of the first point
+     * @param ay y of the first point
+     * @param cx x of the corner
+     * @param cy y of the corner
+     * @param bx x of the second point
+     * @param by y of the second point
+     * @return angle from ca to cb in radians, between -pi (exclusive) and pi
+     */
+    static double cornerAngle(double ax, double ay, double cx, double cy, double bx, double by) {
+        double angle = Math.atan2(ay - cy, ax - cx) - Math.atan2(by - cy, bx - cx);
+        if (angle <= -Math.PI) angle += 2 * Math.PI;
+        if (angle > Math.PI) angle -= 2 * Math.PI;
+        return angle;
+    }
+
+    /**
+     * Finds the point between p12 and p21 where the turns at the point and at
+     * both p12 and p21 are equal, see
+     * {@link ImproveWayAccuracyHelper#findEqualAngleEN}.
+     *
+     * @param x11 x of the node before p12
+     * @param y11 y of the node before p12
+     * @param x12 x of p12
+     * @param y12 y of p12
+     * @param x21 x of p21
+     * @param y21 y of p21
+     * @param x22 x of the node after p21
+     * @param y22 y of the node after p21
+     * @param result receives the point
+     * @return {@code false} if there is no such point
+     */
+    static boolean equalAnglePoint(double x11, double y11, double x12, double y12,
+            double x21, double y21, double x22, double y22, double[] result) {
+        double a1 = Math.atan2(y12 - y11, x12 - x11);
+        double a2 = Math.atan2(y22 - y21, x22 - x21);
+        double a = WayMeasures.fixHeading((a2 - a1) * 180 / Math.PI) * Math.PI / 180 / 3;
+
+        rotate(x11, y11, x12, y12, -a, result);
+        double x1r = result[0];
+        double y1r = result[1];
+        rotate(x22, y22, x21, y21, a, result);
+        return lineLineIntersection(x1r, y1r, x12, y12, x21, y21, result[0], result[1], result);
+    }
+}
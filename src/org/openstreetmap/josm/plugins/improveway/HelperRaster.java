@@ -0,0 +1,101 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Off-screen image of the helpers that stay the same from frame to frame.
+ * The image is drawn again only when the view or its key changes, each frame
+ * just copies it to the screen.
+ *
+ * The image has the resolution of the device, so that it looks the same as
+ * helpers drawn directly on HiDPI screens.
+ */
+final class HelperRaster {
+
+    private BufferedImage image;
+    private double deviceScale;
+    private AffineTransform view;
+    private List<?> key;
+    private final LabelOccupancyGrid labels;
+
+    /**
+     * Constructs a new {@code HelperRaster}.
+     *
+     * @param labelCellSize cell size of the labels drawn into the image
+     */
+    HelperRaster(int labelCellSize) {
+        labels = new LabelOccupancyGrid(labelCellSize);
+    }
+
+    /**
+     * Prepares drawing into the image if it is outdated.
+     *
+     * @param g the graphics of the screen
+     * @param width width of the view
+     * @param height height of the view
+     * @param view transform of the view from east/north to screen coordinates
+     * @param key everything else the content of the image depends on
+     * @return graphics to draw the content with, to be disposed by the caller,
+     * or {@code null} if the image is up to date
+     */
+    Graphics2D update(Graphics2D g, int width, int height, AffineTransform view, List<?> key) {
+        double scale = g.getTransform().getScaleX();
+        int imageWidth = (int) Math.ceil(Math.max(1, width) * scale);
+        int imageHeight = (int) Math.ceil(Math.max(1, height) * scale);
+        if (image != null && image.getWidth() == imageWidth && image.getHeight() == imageHeight
+                && scale == deviceScale && view.equals(this.view) && key.equals(this.key)) {
+            return null;
+        }
+        if (image == null || image.getWidth() != imageWidth || image.getHeight() != imageHeight) {
+            image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        deviceScale = scale;
+        this.view = view;
+        this.key = key;
+        labels.reset(width, height);
+
+        Graphics2D ig = image.createGraphics();
+        ig.setComposite(AlphaComposite.Clear);
+        ig.fillRect(0, 0, imageWidth, imageHeight);
+        ig.setComposite(AlphaComposite.SrcOver);
+        ig.scale(scale, scale);
+        ig.setRenderingHints(g.getRenderingHints());
+        ig.setFont(g.getFont());
+        return ig;
+    }
+
+    /**
+     * Copies the image to the screen.
+     *
+     * @param g the graphics of the screen
+     * @param width width of the view
+     * @param height height of the view
+     */
+    void draw(Graphics2D g, int width, int height) {
+        if (image != null) {
+            g.drawImage(image, 0, 0, Math.max(1, width), Math.max(1, height), null);
+        }
+    }
+
+    /**
+     * Returns the labels drawn into the image.
+     * @return the occupied label cells
+     */
+    LabelOccupancyGrid getLabels() {
+        return labels;
+    }
+
+    /**
+     * Frees the image.
+     */
+    void release() {
+        image = null;
+        view = null;
+        key = null;
+    }
+}
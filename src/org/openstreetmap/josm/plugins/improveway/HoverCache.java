@@ -0,0 +1,119 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.Point;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+
+/**
+ * Results of hover searches for the last few cursor positions. Positions are
+ * quantised into small screen cells, so that jitter of the mouse within a
+ * cell reuses the previous result instead of searching again.
+ *
+ * Entries are valid for one view and one version of the searched data only.
+ * The cache is cleared whenever either changes, and the least recently used
+ * entry is evicted when it is full.
+ *
+ * @param <V> type of the search result, can be {@code null}
+ */
+final class HoverCache<V> {
+
+    /**
+     * Cursor cell, modifiers and view of a search.
+     */
+    static final class Key {
+        /** Width and height of a cursor cell in pixels */
+        static final int CELL_SIZE = 2;
+
+        private final double scale;
+        private final double centerEast;
+        private final double centerNorth;
+        private final int cellX;
+        private final int cellY;
+        private final int modifiers;
+
+        /**
+         * Constructs a new {@code Key}.
+         *
+         * @param nc the view
+         * @param p the cursor position in the view
+         * @param modifiers the modifier state, e.g. a bit per pressed key
+         */
+        Key(NavigatableComponent nc, Point p, int modifiers) {
+            EastNorth center = nc.getCenter();
+            this.scale = nc.getScale();
+            this.centerEast = center != null ? center.east() : Double.NaN;
+            this.centerNorth = center != null ? center.north() : Double.NaN;
+            this.cellX = Math.floorDiv(p.x, CELL_SIZE);
+            this.cellY = Math.floorDiv(p.y, CELL_SIZE);
+            this.modifiers = modifiers;
+        }
+
+        boolean sameView(Key other) {
+            return other != null && Double.compare(scale, other.scale) == 0
+                    && Double.compare(centerEast, other.centerEast) == 0
+                    && Double.compare(centerNorth, other.centerNorth) == 0;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return cellX == other.cellX && cellY == other.cellY && modifiers == other.modifiers && sameView(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * cellX + cellY) + modifiers;
+        }
+    }
+
+    private static final int CAPACITY = 64;
+
+    private final Map<Key, V> entries = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private Key view;
+    private int version;
+
+    /**
+     * Returns the cached result of a search or runs the search.
+     *
+     * @param key cursor cell, modifiers and view of the search, {@code null} to search without caching
+     * @param version version of the searched data
+     * @param search the search
+     * @return the result of the search
+     */
+    V get(Key key, int version, Supplier<V> search) {
+        if (key == null) {
+            return search.get();
+        }
+        if (version != this.version || !key.sameView(view)) {
+            clear();
+            this.version = version;
+            view = key;
+        }
+        if (entries.containsKey(key)) {
+            return entries.get(key);
+        }
+        V result = search.get();
+        entries.put(key, result);
+        return result;
+    }
+
+    /**
+     * Removes all entries, e.g. after the data or the view changed.
+     */
+    void clear() {
+        entries.clear();
+        view = null;
+    }
+}
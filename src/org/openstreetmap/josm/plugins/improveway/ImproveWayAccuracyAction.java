@@ -10,6 +10,7 @@ import java.awt.Cursor;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.event.KeyEvent;
@@ -19,9 +20,11 @@ import java.awt.geom.Ellipse2D;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -37,21 +40,29 @@ import org.openstreetmap.josm.command.DeleteCommand;
 import org.openstreetmap.josm.command.MoveCommand;
 import org.openstreetmap.josm.command.SequenceCommand;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.ProjectionBounds;
 import org.openstreetmap.josm.data.UndoRedoHandler;
 import org.openstreetmap.josm.data.coor.EastNorth;
-import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSelectionListener;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.IWaySegment;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
 import org.openstreetmap.josm.data.osm.event.SelectionEventManager;
 import org.openstreetmap.josm.data.preferences.NamedColorProperty;
 import org.openstreetmap.josm.data.projection.ProjectionRegistry;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapFrame;
 import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+import org.openstreetmap.josm.gui.NavigatableComponent.ZoomChangeListener;
+import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.MapViewPaintable;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
@@ -60,10 +71,8 @@ import org.openstreetmap.josm.gui.util.KeyPressReleaseListener;
 import org.openstreetmap.josm.gui.util.ModifierExListener;
 import org.openstreetmap.josm.spi.preferences.Config;
 import org.openstreetmap.josm.spi.preferences.PreferenceChangeEvent;
-import org.openstreetmap.josm.tools.Geometry;
 import org.openstreetmap.josm.tools.ImageProvider;
 import org.openstreetmap.josm.tools.Logging;
-import org.openstreetmap.josm.tools.Pair;
 import org.openstreetmap.josm.tools.Shortcut;
 import org.openstreetmap.josm.tools.Utils;
 
@@ -71,8 +80,8 @@ import org.openstreetmap.josm.tools.Utils;
  * @author Alexander Kachkaev &lt;alexander@kachkaev.ru&gt;, 2011
  */
 public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintable,
-        DataSelectionListener, ModifierExListener, KeyPressReleaseListener,
-        ExpertModeChangeListener {
+        DataSelectionListener, DataSetListenerAdapter.Listener, ModifierExListener,
+        KeyPressReleaseListener, ExpertModeChangeListener, ZoomChangeListener {
 
     enum State {
         selecting, improving
@@ -84,13 +93,43 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
 
     private static final long serialVersionUID = 42L;
 
+    // room left for labels around arcs when repainting parts of the view
+    private static final int LABEL_MARGIN = 60;
+
     private transient Way targetWay;
     private transient Node candidateNode;
     private transient IWaySegment<Node, Way> candidateSegment;
+    // nodes of candidateSegment when the worker found it
+    private transient Node[] candidateSegmentNodes;
+
+    // computes the Improving state overlay off the EDT, paint only draws the snapshot
+    private final transient OverlayWorker overlayWorker = new OverlayWorker(this::overlayComputed);
+    private transient OverlaySnapshot overlay;
+    private int overlayGeneration;
+
+    private final transient LabelOccupancyGrid labels = new LabelOccupancyGrid(4);
+    // helpers of real nodes, drawn once per view, way version and candidate
+    private final transient HelperRaster helperRaster = new HelperRaster(4);
+    private boolean helperRasterEnabled;
+    // helpers around the candidates only, for long ways
+    private int helperWindowNodes;
+    private double helperWindowMeters;
+    // formatted and measured helper labels of the screen and of the raster
+    private final transient LabelCache labelCache = new LabelCache();
+    private final transient LabelCache rasterLabelCache = new LabelCache();
+    // screen area of the cursor dependent objects painted in the last frame
+    private Rectangle lastDynamicOverlayBounds;
+
+    private final transient DataSetListenerAdapter dataSetListenerAdapter = new DataSetListenerAdapter(this);
 
     private Point mousePos;
     private boolean dragging;
 
+    // processes the latest mouse position at most once per frame
+    private final transient javax.swing.Timer hoverTimer;
+    private long lastHoverTime;
+    private int hoverRate;
+
     private final Cursor cursorSelect;
     private final Cursor cursorSelectHover;
     private final Cursor cursorImprove;
@@ -126,11 +165,14 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
     private int turnTextDistance;
     private int distanceTextDistance;
     private int equalAngleCircleRadius;
+    private int arcMergePixels;
+    private int lodSegmentLength;
     private long longKeypressTime;
 
     private boolean helpersEnabled = false;
     private boolean helpersUseOriginal = false;
     private final transient Shortcut helpersShortcut;
+    private final transient Shortcut smoothShortcut;
     private long keypressTime = 0;
     private boolean helpersEnabledBeforeKeypressed = false;
     private Timer longKeypressTimer;
@@ -138,6 +180,39 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
 
     private boolean mod4 = false; // Windows/Super/Meta key
 
+    private final transient ImproveWayMetrics metrics = ImproveWayMetrics.getInstance();
+    // shapes of the temporary layer, reused by every paint on the EDT
+    private final GeneralPath paintPath = new GeneralPath();
+    private final Line2D.Double paintLine = new Line2D.Double();
+    private final Arc2D.Double paintArc = new Arc2D.Double(Arc2D.PIE);
+    private final Ellipse2D.Double paintCircle = new Ellipse2D.Double();
+    private final Point paintPoint = new Point();
+    private final Point paintPoint1 = new Point();
+    private final Point paintPoint2 = new Point();
+    private final Point paintNewPoint = new Point();
+    private final Point paintHelperPoint1 = new Point();
+    private final Point paintHelperPoint2 = new Point();
+    // screen positions of the nodes of targetWay, projected once per view
+    private final transient ScreenProjection screenProjection = new ScreenProjection();
+    // first overlay generation computed after the last dataset change
+    private int projectedGeneration;
+    private boolean debugHud;
+    // any visible way under the cursor becomes the target way
+    private boolean hoverAllWays;
+    private int snapDistance;
+    // segments of visible ways on the screen, null if the view or data changed
+    private transient ViewSegmentIndex viewIndex;
+    private final transient HoverCache<Way> hoverWayCache = new HoverCache<>();
+    // helper measures are approximated in a local tangent plane when accurate enough
+    private boolean localPrecision;
+    private double localMaxError;
+    private transient LocalTangentPlane localPlane;
+    private transient ProjectionBounds localPlaneBounds;
+    // screen area of the debug HUD painted in the last frame
+    private Rectangle hudBounds;
+    // repaints the debug HUD while the cursor does not move
+    private final transient javax.swing.Timer hudTimer;
+
     /**
      * Constructs a new {@code ImproveWayAccuracyAction}.
      */
@@ -150,6 +225,8 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
 
         helpersShortcut = Shortcut.registerShortcut("mapmode:enablewayaccuracyhelpers",
                 tr("Mode: Enable way accuracy helpers"), KeyEvent.CHAR_UNDEFINED, Shortcut.NONE);
+        smoothShortcut = Shortcut.registerShortcut("mapmode:improvewaysmooth",
+                tr("Mode: Smooth the target way or all selected ways"), KeyEvent.CHAR_UNDEFINED, Shortcut.NONE);
 
         cursorSelect = ImageProvider.getCursor("normal", "mode");
         cursorSelectHover = ImageProvider.getCursor("hand", "mode");
@@ -159,6 +236,13 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         cursorImproveAddLock = ImageProvider.getCursor("crosshair",
                 "add_node_lock");
         cursorImproveLock = ImageProvider.getCursor("crosshair", "lock");
+        hoverTimer = new javax.swing.Timer(0, e -> updateHover());
+        hoverTimer.setRepeats(false);
+        hudTimer = new javax.swing.Timer(1000, e -> {
+            if (mv != null && hudBounds != null) {
+                mv.repaint(hudBounds);
+            }
+        });
         ExpertToggleAction.addExpertModeChangeListener(this, true);
         readPreferences();
     }
@@ -189,8 +273,13 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         map.mapView.addMouseMotionListener(this);
         map.mapView.addTemporaryLayer(this);
         SelectionEventManager.getInstance().addSelectionListener(this);
+        DatasetEventManager.getInstance().addDatasetListener(dataSetListenerAdapter, FireMode.IN_EDT);
+        NavigatableComponent.addZoomChangeListener(this);
 
         map.keyDetector.addModifierExListener(this);
+        if (debugHud) {
+            hudTimer.start();
+        }
 
         if (!isExpert) return;
         helpersEnabled = false;
@@ -201,7 +290,7 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
             public void run() {
                 helpersEnabled = true;
                 helpersUseOriginal = true;
-                MainApplication.getLayerManager().invalidateEditLayer();
+                GuiHelper.runInEDT(ImproveWayAccuracyAction.this::updateDynamicOverlay);
             }
         }, longKeypressTime);
     }
@@ -233,20 +322,45 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         turnTextDistance = Config.getPref().getInt("improvewayaccuracy.helper-turn-text-distance", 15);
         distanceTextDistance = Config.getPref().getInt("improvewayaccuracy.helper-distance-text-distance", 15);
         equalAngleCircleRadius = Config.getPref().getInt("improvewayaccuracy.helper-equal-angle-circle-radius", 15);
+        arcMergePixels = Config.getPref().getInt("improvewayaccuracy.helper-arc-merge-distance", 4);
+        lodSegmentLength = Config.getPref().getInt("improvewayaccuracy.helper-lod-segment-length", 12);
         longKeypressTime = Config.getPref().getInt("improvewayaccuracy.long-keypress-time", 250);
+        // 0 processes every mouse event immediately
+        hoverRate = Config.getPref().getInt("improvewayaccuracy.hover-rate", 60);
+        debugHud = Config.getPref().getBoolean("improvewayaccuracy.debug-hud", false);
+        helperRasterEnabled = Config.getPref().getBoolean("improvewayaccuracy.helper-raster", true);
+        // 0 shows helpers in the whole view
+        helperWindowNodes = Config.getPref().getInt("improvewayaccuracy.helper-window.nodes", 0);
+        helperWindowMeters = Config.getPref().getDouble("improvewayaccuracy.helper-window.meters", 0);
+        hoverAllWays = Config.getPref().getBoolean("improvewayaccuracy.hover-all-ways", false);
+        snapDistance = Config.getPref().getInt("mappaint.segment.snap-distance", 10);
+        localPrecision = "local".equals(Config.getPref().get("improvewayaccuracy.precision", "geodesic"));
+        localMaxError = Config.getPref().getDouble("improvewayaccuracy.precision.local-max-error", 0.01);
+        localPlaneBounds = null;
+        // drawn with the old colours, strokes and sizes
+        helperRaster.release();
     }
 
     @Override
     public void exitMode() {
         super.exitMode();
+        viewIndex = null;
+        helperRaster.release();
+        hoverWayCache.clear();
+        hoverTimer.stop();
+        hudTimer.stop();
 
         MainApplication.getMap().keyDetector.removeKeyListener(this);
         MainApplication.getMap().mapView.removeMouseListener(this);
         MainApplication.getMap().mapView.removeMouseMotionListener(this);
         MainApplication.getMap().mapView.removeTemporaryLayer(this);
         SelectionEventManager.getInstance().removeSelectionListener(this);
+        DatasetEventManager.getInstance().removeDatasetListener(dataSetListenerAdapter);
+        NavigatableComponent.removeZoomChangeListener(this);
 
         MainApplication.getMap().keyDetector.removeModifierExListener(this);
+        overlayWorker.setWay(null);
+        overlay = null;
         MainApplication.getLayerManager().invalidateEditLayer();
     }
 
@@ -298,9 +412,19 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
      */
     @Override
     public void paint(Graphics2D g, MapView mv, Bounds bbox) {
+        long start = ImproveWayMetrics.start();
+        paintOverlay(g, mv);
+        metrics.stop(ImproveWayMetrics.Operation.PAINT, start);
+        if (debugHud) {
+            drawDebugHud(g);
+        }
+    }
+
+    private void paintOverlay(Graphics2D g, MapView mv) {
 
         g.setColor(guideColor);
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        ScreenProjection sp = screenProjection;
 
         if (state == State.selecting && targetWay != null) {
             // Highlighting the targetWay in Selecting state
@@ -308,66 +432,42 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
             // segments are covered with others, which is bad.
             g.setStroke(selectTargetWayStroke);
 
-            List<Node> nodes = targetWay.getNodes();
-
-            GeneralPath b = new GeneralPath();
-            Point p0 = mv.getPoint(nodes.get(0));
-            Point pn;
-            b.moveTo(p0.x, p0.y);
-
-            for (Node n : nodes) {
-                pn = mv.getPoint(n);
-                b.lineTo(pn.x, pn.y);
-            }
-            if (targetWay.isClosed()) {
-                b.lineTo(p0.x, p0.y);
-            }
+            // Only the segments in the view are added to the path, they are
+            // kept in the screen index of the view in the order of the way
+            GeneralPath b = paintPath;
+            b.reset();
+            getViewIndex(mv).appendSegments(targetWay, b);
 
             g.draw(b);
 
-        } else if (state == State.improving) {
+        } else if (state == State.improving && overlay != null) {
+            sp.update(mv, targetWay);
             // Drawing preview lines and highlighting the node
             // that is going to be moved.
             // Non-native highlighting is used here as well.
+            // Everything is read from the snapshot computed by overlayWorker.
+            OverlaySnapshot o = overlay;
+            boolean ctrl = o.request.ctrl;
+            boolean alt = o.request.alt;
 
             // Finding endpoints
-            Point p1 = null, p2 = null;
-            if (ctrl && candidateSegment != null) {
+            Point p1 = o.neighbour1EN != null ? sp.project(o.neighbour1EN.east(), o.neighbour1EN.north(), paintPoint1) : null;
+            Point p2 = o.neighbour2EN != null ? sp.project(o.neighbour2EN.east(), o.neighbour2EN.north(), paintPoint2) : null;
+            if (ctrl && o.candidateSegment != null) {
                 g.setStroke(addNodeStroke);
-                p1 = mv.getPoint(candidateSegment.getFirstNode());
-                p2 = mv.getPoint(candidateSegment.getSecondNode());
-            } else if (!(alt ^ ctrl) && candidateNode != null) {
+            } else if (!(alt ^ ctrl) && o.candidateNode != null) {
                 g.setStroke(moveNodeStroke);
-                List<Pair<Node, Node>> wpps = targetWay.getNodePairs(false);
-                for (Pair<Node, Node> wpp : wpps) {
-                    if (wpp.a == candidateNode) {
-                        p1 = mv.getPoint(wpp.b);
-                    }
-                    if (wpp.b == candidateNode) {
-                        p2 = mv.getPoint(wpp.a);
-                    }
-                    if (p1 != null && p2 != null) {
-                        break;
-                    }
-                }
-            } else if (alt && !ctrl && candidateNode != null) {
+            } else if (alt && !ctrl && o.candidateNode != null) {
                 g.setStroke(deleteNodeStroke);
-                List<Node> nodes = targetWay.getNodes();
-                int index = nodes.indexOf(candidateNode);
-
-                // Only draw line if node is not first and/or last
-                if (index > 0 && index < (nodes.size() - 1)) {
-                    p1 = mv.getPoint(nodes.get(index - 1));
-                    p2 = mv.getPoint(nodes.get(index + 1));
-                }
                 // TODO: indicate what part that will be deleted? (for end nodes)
             }
 
-            EastNorth newPointEN = getNewPointEN();
-            Point newPoint = mv.getPoint(newPointEN);
+            EastNorth newPointEN = o.newPointEN;
+            Point newPoint = newPointEN != null ? sp.project(newPointEN.east(), newPointEN.north(), paintNewPoint) : null;
 
             // Drawing preview lines
-            GeneralPath b = new GeneralPath();
+            GeneralPath b = paintPath;
+            b.reset();
             if (alt && !ctrl) {
                 // In delete mode
                 if (p1 != null && p2 != null) {
@@ -388,13 +488,13 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
             g.draw(b);
 
             // Highlighting candidateNode
-            if (candidateNode != null) {
-                Point p = mv.getPoint(candidateNode);
+            if (o.candidateEN != null) {
+                Point p = sp.project(o.candidateEN.east(), o.candidateEN.north(), paintPoint);
                 g.setColor(guideColor);
                 g.fillRect(p.x - dotSize/2, p.y - dotSize/2, dotSize, dotSize);
             }
 
-            if (!alt && !ctrl && candidateNode != null) {
+            if (!alt && !ctrl && o.candidateNode != null && newPoint != null) {
                 b.reset();
                 drawIntersectingWayHelperLines(mv, b, newPoint);
                 g.setStroke(moveNodeIntersectingStroke);
@@ -402,148 +502,229 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
             }
 
             // Painting helpers visualizing turn angles and more
-            if (!helpersEnabled) return;
+            OverlaySnapshot.HelperPoints helpers = o.helpers;
+            if (helpers == null) return;
 
             // Perpendicular line at half distance
             if (!(alt && !ctrl) && p1 != null && p2 != null) {
-                Point half = new Point(
-                    (p1.x + p2.x)/2,
-                    (p1.y + p2.y)/2
-                );
+                int halfX = (p1.x + p2.x)/2;
+                int halfY = (p1.y + p2.y)/2;
                 double heading = Math.atan2(
                     p2.y-p1.y,
                     p2.x-p1.x
                 ) + Math.PI/2;
                 g.setStroke(perpendicularLineStroke);
                 g.setColor(perpendicularLineColor);
-                g.draw(new Line2D.Double(
-                    half.x + perpendicularLengthPixels * Math.cos(heading),
-                    half.y + perpendicularLengthPixels * Math.sin(heading),
-                    half.x - perpendicularLengthPixels * Math.cos(heading),
-                    half.y - perpendicularLengthPixels * Math.sin(heading)
-                ));
+                paintLine.setLine(
+                    halfX + perpendicularLengthPixels * Math.cos(heading),
+                    halfY + perpendicularLengthPixels * Math.sin(heading),
+                    halfX - perpendicularLengthPixels * Math.cos(heading),
+                    halfY - perpendicularLengthPixels * Math.sin(heading)
+                );
+                g.draw(paintLine);
             }
 
-            // Pie with turn angle
-            Node node;
-            LatLon coor, lastcoor = null;
-            Point point, lastpoint = null;
-            double distance;
-            double heading, lastheading = 0;
-            double turn;
-            Arc2D arc;
-            double arcRadius;
-            boolean candidateSegmentVisited = false;
-            int nodeCounter = 0;
-            int nodesCount = targetWay.getNodesCount();
-            int endLoop = nodesCount;
-            if (targetWay.isClosed()) endLoop++;
-            for (int i = 0; i < endLoop; i++) {
-                // when way is closed we visit second node again
-                // to get turn for start/end node
-                node = targetWay.getNode(i == nodesCount ? 1 : i);
-                if (!helpersUseOriginal && newPointEN != null &&
-                    ctrl &&
-                    !candidateSegmentVisited &&
-                    candidateSegment != null &&
-                    candidateSegment.getSecondNode() == node
-                ) {
-                    coor = ProjectionRegistry.getProjection().eastNorth2latlon(newPointEN);
-                    point = newPoint;
-                    candidateSegmentVisited = true;
-                    i--;
-                } else if (!helpersUseOriginal && newPointEN != null && !alt && !ctrl && node == candidateNode) {
-                    coor = ProjectionRegistry.getProjection().eastNorth2latlon(newPointEN);
-                    point = newPoint;
-                } else if (!helpersUseOriginal && alt && !ctrl && node == candidateNode) {
-                    continue;
-                } else {
-                    coor = node.getCoor();
-                    point = mv.getPoint(coor);
-                }
-                if (nodeCounter >= 1) {
-                    heading = fixHeading(-90+lastcoor.bearing(coor)*180/Math.PI);
-                    distance = lastcoor.greatCircleDistance(coor);
-                    if (nodeCounter >= 2) {
-                        turn = Math.abs(fixHeading(heading-lastheading));
-                        double fixedHeading = fixHeading(heading - lastheading);
-                        g.setColor(turnColor);
-                        drawDisplacedlabel(
-                            lastpoint.x,
-                            lastpoint.y,
-                            turnTextDistance,
-                            (lastheading + fixedHeading/2 + (fixedHeading >= 0 ? 90 : -90))*Math.PI/180,
-                            String.format("%1.0f °", turn),
-                            g
-                        );
-                        arcRadius = arcRadiusPixels;
-                        arc = new Arc2D.Double(
-                            lastpoint.x-arcRadius,
-                            lastpoint.y-arcRadius,
-                            arcRadius*2,
-                            arcRadius*2,
-                            -heading + (fixedHeading >= 0 ? 90 : -90),
-                            fixedHeading,
-                            Arc2D.PIE
-                        );
-                        g.setStroke(arcStroke);
-                        g.setColor(arcFillColor);
-                        g.fill(arc);
-                        g.setColor(arcStrokeColor);
-                        g.draw(arc);
-                    }
-
-                    // Display segment length
-                    // avoid doubling first segment on closed ways
-                    if (i != nodesCount) {
-                        g.setColor(distanceColor);
-                        drawDisplacedlabel(
-                            (lastpoint.x+point.x)/2,
-                            (lastpoint.y+point.y)/2,
-                            distanceTextDistance,
-                            (heading + 90)*Math.PI/180,
-                            String.format("%1.0f m", distance),
-                            g
-                        );
+            // Level of detail: without arcs and distances when segments are short on screen.
+            // Measured on the whole way, so repainted parts of the view look the same.
+            boolean reducedStyle = o.meanSegmentLength < lodSegmentLength * mv.getScale();
+            // nodes of the way are read from the projection, unless it is older than the snapshot
+            boolean projected = o.request.generation >= projectedGeneration;
+            if (helperRasterEnabled) {
+                // values of real nodes only change with the candidate, they are drawn once;
+                // the image is released when preferences of colours and sizes change
+                Graphics2D rg = helperRaster.update(g, mv.getWidth(), mv.getHeight(), mv.getAffineTransform(),
+                        Arrays.asList(targetWay, o.geometryVersion, ctrl, alt, o.request.helpersUseOriginal,
+                                o.candidateNode, o.candidateSegment, reducedStyle, g.getFont()));
+                if (rg != null) {
+                    try {
+                        drawHelperPoints(rg, sp, helpers, reducedStyle, projected, true, false,
+                                helperRaster.getLabels(), rasterLabelCache);
+                    } finally {
+                        rg.dispose();
                     }
-
-                    lastheading = heading;
                 }
-                lastcoor = coor;
-                lastpoint = point;
-                nodeCounter++;
+                helperRaster.draw(g, mv.getWidth(), mv.getHeight());
+                // labels at the new point are only checked against each other,
+                // the labels in the image must not hide them
+                labels.reset(mv.getWidth(), mv.getHeight());
+                drawHelperPoints(g, sp, helpers, reducedStyle, projected, false, true, labels, labelCache);
+            } else {
+                // labels at the new point first, so they take precedence
+                labels.reset(mv.getWidth(), mv.getHeight());
+                drawHelperPoints(g, sp, helpers, reducedStyle, projected, false, true, labels, labelCache);
+                drawHelperPoints(g, sp, helpers, reducedStyle, projected, true, false, labels, labelCache);
             }
 
-            // Find and display point where turn angle will be same with two neighbours
-            EastNorth equalAngleEN = findEqualAngleEN();
-            if (equalAngleEN != null) {
-                Point equalAnglePoint = mv.getPoint(equalAngleEN);
-                Ellipse2D.Double equalAngleCircle = new Ellipse2D.Double(
+            // Display point where turn angle will be same with two neighbours
+            if (o.equalAngleEN != null) {
+                Point equalAnglePoint = sp.project(o.equalAngleEN.east(), o.equalAngleEN.north(), paintPoint);
+                paintCircle.setFrame(
                     equalAnglePoint.x-equalAngleCircleRadius/2,
                     equalAnglePoint.y-equalAngleCircleRadius/2,
                     equalAngleCircleRadius,
                     equalAngleCircleRadius);
                 g.setStroke(equalAngleCircleStroke);
                 g.setColor(equalAngleCircleColor);
-                g.draw(equalAngleCircle);
+                g.draw(paintCircle);
             }
         }
     }
 
-    // returns node index for closed ways using possibly under/overflowed index
-    // returns -1 if not closed and out of range
-    private int fixIndex(int count, boolean closed, int index) {
-        if (index >= 0 && index < count) return index;
-        if (!closed) return -1;
-        while (index < 0) index += count;
-        while (index >= count) index -= count;
-        return index;
+    /**
+     * Draws turn arcs and angles and segment lengths of the helper points.
+     *
+     * @param g graphics
+     * @param sp screen positions of the nodes of the target way
+     * @param helpers the helper points
+     * @param reducedStyle draw the angles only
+     * @param projected read nodes of the way from {@code sp}
+     * @param drawStatic draw values that are the same for any new point
+     * @param drawDynamic draw values that depend on the new point
+     * @param labels labels drawn in this frame
+     * @param labelCache labels prepared for {@code g}
+     */
+    private void drawHelperPoints(Graphics2D g, ScreenProjection sp, OverlaySnapshot.HelperPoints helpers,
+            boolean reducedStyle, boolean projected, boolean drawStatic, boolean drawDynamic,
+            LabelOccupancyGrid labels, LabelCache labelCache) {
+        labelCache.update(g);
+        // Pie with turn angle
+        Point point, lastpoint = null;
+        double heading, lastheading;
+        boolean arcPending = false;
+        int arcX = 0, arcY = 0;
+        double arcHeading = 0, arcTurn = 0;
+        for (int k = 0; k < helpers.count; k++) {
+            point = lastpoint == paintHelperPoint1 ? paintHelperPoint2 : paintHelperPoint1;
+            int index = helpers.node[k];
+            if (projected && index >= 0 && index < sp.getCount() && !Float.isNaN(sp.getX(index))) {
+                point.setLocation((int) sp.getX(index), (int) sp.getY(index));
+            } else {
+                sp.project(helpers.east[k], helpers.north[k], point);
+            }
+            if (helpers.first[k] || (helpers.dynamic[k] ? !drawDynamic : !drawStatic)) {
+                // arcs are not merged across points of the other part
+                if (arcPending && !reducedStyle) {
+                    drawTurnArc(g, arcX, arcY, arcHeading, arcTurn);
+                }
+                arcPending = false;
+                lastpoint = point;
+                continue;
+            }
+            heading = helpers.heading[k];
+            double fixedHeading = helpers.turn[k];
+            if (!Double.isNaN(fixedHeading)) {
+                lastheading = helpers.heading[k - 1];
+                double turn = Math.abs(fixedHeading);
+                double labelHeading = (lastheading + fixedHeading/2 + (fixedHeading >= 0 ? 90 : -90))*Math.PI/180;
+                if (labels.isFree(
+                        (int) (lastpoint.x + turnTextDistance * Math.cos(labelHeading)),
+                        (int) (lastpoint.y + turnTextDistance * Math.sin(labelHeading)))) {
+                    g.setColor(turnColor);
+                    drawDisplacedlabel(
+                        lastpoint.x,
+                        lastpoint.y,
+                        turnTextDistance,
+                        labelHeading,
+                        labelCache.getTurn(turn),
+                        g,
+                        labelCache,
+                        labels
+                    );
+                }
+                // Arcs closer to each other than arcMergePixels
+                // are drawn as a single arc of their total turn
+                if (arcPending && Math.abs(lastpoint.x - arcX) < arcMergePixels
+                        && Math.abs(lastpoint.y - arcY) < arcMergePixels) {
+                    arcTurn += fixedHeading;
+                    arcHeading = heading;
+                } else {
+                    if (arcPending && !reducedStyle) {
+                        drawTurnArc(g, arcX, arcY, arcHeading, arcTurn);
+                    }
+                    arcPending = true;
+                    arcX = lastpoint.x;
+                    arcY = lastpoint.y;
+                    arcTurn = fixedHeading;
+                    arcHeading = heading;
+                }
+            }
+
+            // Display segment length
+            if (!Double.isNaN(helpers.distance[k]) && !reducedStyle) {
+                double labelHeading = (heading + 90)*Math.PI/180;
+                int x = (lastpoint.x+point.x)/2;
+                int y = (lastpoint.y+point.y)/2;
+                if (labels.isFree(
+                        (int) (x + distanceTextDistance * Math.cos(labelHeading)),
+                        (int) (y + distanceTextDistance * Math.sin(labelHeading)))) {
+                    g.setColor(distanceColor);
+                    drawDisplacedlabel(
+                        x,
+                        y,
+                        distanceTextDistance,
+                        labelHeading,
+                        labelCache.getDistance(helpers.distance[k]),
+                        g,
+                        labelCache,
+                        labels
+                    );
+                }
+            }
+            lastpoint = point;
+        }
+        if (arcPending && !reducedStyle) {
+            drawTurnArc(g, arcX, arcY, arcHeading, arcTurn);
+        }
     }
 
-    private double fixHeading(double heading) {
-        while (heading < -180) heading += 360;
-        while (heading > 180) heading -= 360;
-        return heading;
+    /**
+     * Draws call counts and latencies of the instrumented operations in the
+     * upper left corner of the map view.
+     */
+    private void drawDebugHud(Graphics2D g) {
+        FontMetrics fontMetrics = g.getFontMetrics();
+        int lineHeight = fontMetrics.getHeight();
+        ImproveWayMetrics.Operation[] operations = ImproveWayMetrics.Operation.values();
+        String[] lines = new String[operations.length + 1];
+        for (int i = 0; i < operations.length; i++) {
+            ImproveWayMetricsMXBean.OperationStatistics statistics = metrics.getStatistics(operations[i]);
+            lines[i] = String.format("%-11s %7d  p50 %8.1f µs  p99 %8.1f µs",
+                    operations[i].label, statistics.getCount(), statistics.getP50Micros(), statistics.getP99Micros());
+        }
+        LocalTangentPlane plane = overlay != null ? overlay.request.plane : null;
+        lines[operations.length] = plane != null
+                ? String.format("precision   local, error < %.1f mm", plane.getErrorBound() * 1000)
+                : "precision   geodesic";
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fontMetrics.stringWidth(line));
+        }
+        hudBounds = new Rectangle(10, 10, width + 10, lineHeight * lines.length + 10);
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fill(hudBounds);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 15, 15 + fontMetrics.getAscent() + i * lineHeight);
+        }
+    }
+
+    private void drawTurnArc(Graphics2D g, int x, int y, double heading, double turn) {
+        double arcRadius = arcRadiusPixels;
+        Arc2D arc = paintArc;
+        arc.setArc(
+            x-arcRadius,
+            y-arcRadius,
+            arcRadius*2,
+            arcRadius*2,
+            -heading + (turn >= 0 ? 90 : -90),
+            turn,
+            Arc2D.PIE
+        );
+        g.setStroke(arcStroke);
+        g.setColor(arcFillColor);
+        g.fill(arc);
+        g.setColor(arcStrokeColor);
+        g.draw(arc);
     }
 
     public static void drawDisplacedlabel(
@@ -565,6 +746,42 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         );
     }
 
+    /**
+     * Draws a cached label unless it overlaps labels already drawn in this
+     * frame, at the same place as {@link #drawDisplacedlabel(int, int, int, double, String, Graphics2D)}.
+     *
+     * @param x anchor x
+     * @param y anchor y
+     * @param distance distance of the label from the anchor
+     * @param heading direction of the label from the anchor in radians
+     * @param label the label
+     * @param g graphics
+     * @param labelCache cache of the label, prepared for {@code g}
+     * @param labels labels drawn in this frame
+     * @return {@code true} if the label was drawn
+     */
+    static boolean drawDisplacedlabel(
+        int x,
+        int y,
+        int distance,
+        double heading,
+        LabelCache.Label label,
+        Graphics2D g,
+        LabelCache labelCache,
+        LabelOccupancyGrid labels
+    ) {
+        FontMetrics fontMetrics = labelCache.getFontMetrics();
+        int labelWidth = label.width;
+        int labelHeight = fontMetrics.getHeight();
+        int labelX = (int) (x+(distance+(labelWidth-labelHeight)/2)*Math.cos(heading)-labelWidth/2);
+        int labelY = (int) (y+distance*Math.sin(heading)+labelHeight/2);
+        if (!labels.occupy(labelX, labelY - fontMetrics.getAscent(), labelWidth, labelHeight)) {
+            return false;
+        }
+        g.drawGlyphVector(label.glyphs, labelX, labelY);
+        return true;
+    }
+
     public EastNorth getNewPointEN() {
         if (mod4) {
             return findEqualAngleEN();
@@ -575,65 +792,27 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         }
     }
 
+    /**
+     * Returns the point where the turns at the new point and at both of its
+     * neighbours are equal, as computed for the current candidates.
+     *
+     * @return the point or {@code null} if unknown
+     */
     public EastNorth findEqualAngleEN() {
-        int index1 = -1;
-        int index2 = -1;
-        int realNodesCount = targetWay.getRealNodesCount();
-
-        for (int i = 0; i < realNodesCount; i++) {
-            Node node = targetWay.getNode(i);
-            if (node == candidateNode) {
-                index1 = i-1;
-                index2 = i+1;
-            }
-            if (candidateSegment != null) {
-                if (node == candidateSegment.getFirstNode()) index1 = i;
-                if (node == candidateSegment.getSecondNode()) index2 = i;
-            }
-        }
-
-        int i11 = fixIndex(realNodesCount, targetWay.isClosed(), index1-1);
-        int i12 = fixIndex(realNodesCount, targetWay.isClosed(), index1);
-        int i21 = fixIndex(realNodesCount, targetWay.isClosed(), index2);
-        int i22 = fixIndex(realNodesCount, targetWay.isClosed(), index2+1);
-        if (i11 < 0 || i12 < 0 || i21 < 0 || i22 < 0) return null;
-
-        EastNorth p11 = targetWay.getNode(i11).getEastNorth();
-        EastNorth p12 = targetWay.getNode(i12).getEastNorth();
-        EastNorth p21 = targetWay.getNode(i21).getEastNorth();
-        EastNorth p22 = targetWay.getNode(i22).getEastNorth();
-
-        double a1 = Geometry.getSegmentAngle(p11, p12);
-        double a2 = Geometry.getSegmentAngle(p21, p22);
-        double a = fixHeading((a2-a1)*180/Math.PI)*Math.PI/180/3;
-
-        EastNorth p1r = p11.rotate(p12, -a);
-        EastNorth p2r = p22.rotate(p21, a);
-
-        return Geometry.getLineLineIntersection(p1r, p12, p21, p2r);
+        return overlay != null ? overlay.equalAngleEN : null;
     }
 
     protected void drawIntersectingWayHelperLines(MapView mv, GeneralPath b, Point newPoint) {
-        for (final OsmPrimitive referrer : candidateNode.getReferrers()) {
-            if (!(referrer instanceof Way) || targetWay.equals(referrer)) {
-                continue;
-            }
-            final List<Node> nodes = ((Way) referrer).getNodes();
-            for (int i = 0; i < nodes.size(); i++) {
-                if (!candidateNode.equals(nodes.get(i))) {
-                    continue;
-                }
-                if (i > 0) {
-                    final Point p = mv.getPoint(nodes.get(i - 1));
-                    b.moveTo(newPoint.x, newPoint.y);
-                    b.lineTo(p.x, p.y);
-                }
-                if (i < nodes.size() - 1) {
-                    final Point p = mv.getPoint(nodes.get(i + 1));
-                    b.moveTo(newPoint.x, newPoint.y);
-                    b.lineTo(p.x, p.y);
-                }
-            }
+        // neighbours in other ways are looked up by the overlay worker
+        double[] neighbours = overlay != null ? overlay.intersectingNeighbours : null;
+        if (neighbours == null) {
+            return;
+        }
+        screenProjection.update(mv, targetWay);
+        for (int k = 0; k < neighbours.length; k += 2) {
+            final Point p = screenProjection.project(neighbours[k], neighbours[k + 1], paintPoint);
+            b.moveTo(newPoint.x, newPoint.y);
+            b.lineTo(p.x, p.y);
         }
     }
 
@@ -649,7 +828,7 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         updateCursorDependentObjectsIfNeeded();
         updateCursor();
         updateStatusLine();
-        MainApplication.getLayerManager().invalidateEditLayer();
+        updateDynamicOverlay();
     }
 
     @Override
@@ -657,9 +836,36 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         if (selectionChangedBlocked) {
             return;
         }
+        // nearest ways are searched among the selected ones first
+        hoverWayCache.clear();
         updateStateByCurrentSelection();
     }
 
+    @Override
+    public void processDatasetEvent(AbstractDatasetChangedEvent event) {
+        viewIndex = null;
+        hoverWayCache.clear();
+        screenProjection.invalidate();
+        // earlier snapshots may not match the nodes projected from now on
+        projectedGeneration = overlayGeneration + 1;
+        if (state != State.improving) {
+            return;
+        }
+        // the geometry snapshot of targetWay is patched by the worker
+        overlayWorker.datasetChanged(event);
+        requestOverlay();
+    }
+
+    @Override
+    public void zoomChanged() {
+        viewIndex = null;
+        hoverWayCache.clear();
+        if (state == State.improving) {
+            // helpers are computed for the visible area only
+            requestOverlay();
+        }
+    }
+
     @Override
     public void mouseDragged(MouseEvent e) {
         dragging = true;
@@ -675,21 +881,63 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         mousePos = e.getPoint();
 
         updateKeyModifiers(e);
+        if (hoverRate <= 0) {
+            updateHover();
+            return;
+        }
+        // Mice may report moves more often than the screen is refreshed.
+        // Intermediate positions are dropped, the latest one is processed
+        // when the frame interval has passed.
+        if (!hoverTimer.isRunning()) {
+            long wait = lastHoverTime + 1_000_000_000L / hoverRate - System.nanoTime();
+            if (wait <= 0) {
+                updateHover();
+            } else {
+                hoverTimer.setInitialDelay((int) Math.max(1, wait / 1_000_000));
+                hoverTimer.restart();
+            }
+        }
+    }
+
+    /**
+     * Updates everything depending on the mouse position
+     */
+    private void updateHover() {
+        lastHoverTime = System.nanoTime();
         updateCursorDependentObjectsIfNeeded();
         updateCursor();
         updateStatusLine();
-        MainApplication.getLayerManager().invalidateEditLayer();
+        updateDynamicOverlay();
+    }
+
+    /**
+     * Processes a mouse position still waiting for the next frame
+     */
+    private void flushHover() {
+        if (hoverTimer.isRunning()) {
+            hoverTimer.stop();
+            updateHover();
+        }
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        dragging = false;
         if (!isEnabled() || e.getButton() != MouseEvent.BUTTON1) {
+            flushHover();
+            dragging = false;
             return;
         }
 
+        hoverTimer.stop();
         updateKeyModifiers(e);
         mousePos = e.getPoint();
+        if (state == State.improving) {
+            // the candidates shown may belong to an earlier cursor position,
+            // they are found again before releasing, as they are locked while dragging
+            updateCursorDependentObjectsIfNeeded();
+            awaitOverlay();
+        }
+        dragging = false;
         EastNorth newPointEN = getNewPointEN();
 
         if (state == State.selecting) {
@@ -705,7 +953,11 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
                         tr("Warning"), JOptionPane.WARNING_MESSAGE);
                 return;
             }
+            // the target way may have been switched by hovering
+            selectTargetWay();
 
+            long start = ImproveWayMetrics.start();
+            Command command = null;
             if (ctrl && !alt && candidateSegment != null) {
                 // Adding a new node to the highlighted segment
                 // Important: If there are other ways containing the same
@@ -719,52 +971,35 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
                 virtualCmds.add(new AddCommand(getLayerManager().getEditDataSet(), virtualNode));
 
                 // Looking for candidateSegment copies in ways that are
-                // referenced
-                // by candidateSegment nodes
-                List<Way> firstNodeWays = new ArrayList<>(Utils.filteredCollection(
-                        candidateSegment.getFirstNode().getReferrers(),
-                        Way.class));
-                List<Way> secondNodeWays = new ArrayList<>(Utils.filteredCollection(
-                        candidateSegment.getFirstNode().getReferrers(),
-                        Way.class));
-
-                Collection<IWaySegment<?, Way>> virtualSegments = new LinkedList<>();
-                for (Way w : firstNodeWays) {
-                    List<Pair<Node, Node>> wpps = w.getNodePairs(true);
-                    for (Way w2 : secondNodeWays) {
-                        if (!w.equals(w2)) {
-                            continue;
-                        }
-                        // A way is referenced in both nodes.
-                        // Checking if there is such segment
-                        int i = -1;
-                        for (Pair<Node, Node> wpp : wpps) {
-                            ++i;
-                            boolean ab = wpp.a.equals(candidateSegment.getFirstNode())
-                                    && wpp.b.equals(candidateSegment.getSecondNode());
-                            boolean ba = wpp.b.equals(candidateSegment.getFirstNode())
-                                    && wpp.a.equals(candidateSegment.getSecondNode());
-                            if (ab || ba) {
-                                virtualSegments.add(new IWaySegment<>(w, i));
-                            }
-                        }
+                // referenced by both candidateSegment nodes
+                List<IWaySegment<Node, Way>> virtualSegments = ImproveWayAccuracyHelper.findSharedSegments(
+                        candidateSegment.getFirstNode(), candidateSegment.getSecondNode());
+
+                // Adding the node to all segments found, segments of the
+                // same way are adjacent and in ascending order
+                int changedWays = 0;
+                for (int i = 0; i < virtualSegments.size();) {
+                    Way w = virtualSegments.get(i).getWay();
+                    int j = i;
+                    while (j < virtualSegments.size() && virtualSegments.get(j).getWay() == w) {
+                        j++;
                     }
-                }
-
-                // Adding the node to all segments found
-                for (IWaySegment<?, Way> virtualSegment : virtualSegments) {
-                    Way w = virtualSegment.getWay();
                     Way wnew = new Way(w);
-                    wnew.addNode(virtualSegment.getUpperIndex(), virtualNode);
+                    // inserting from the end keeps the lower indices valid
+                    for (int k = j - 1; k >= i; k--) {
+                        wnew.addNode(virtualSegments.get(k).getUpperIndex(), virtualNode);
+                    }
                     virtualCmds.add(new ChangeCommand(w, wnew));
+                    changedWays++;
+                    i = j;
                 }
 
                 // Finishing the sequence command
                 String text = trn("Add a new node to way",
                         "Add a new node to {0} ways",
-                        virtualSegments.size(), virtualSegments.size());
+                        changedWays, changedWays);
 
-                UndoRedoHandler.getInstance().add(new SequenceCommand(text, virtualCmds));
+                command = new SequenceCommand(text, virtualCmds);
 
             } else if (alt && !ctrl && candidateNode != null) {
                 // Deleting the highlighted node
@@ -778,7 +1013,7 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
                     final List<Node> nodes = newWay.getNodes();
                     nodes.remove(candidateNode);
                     newWay.setNodes(nodes);
-                    UndoRedoHandler.getInstance().add(new ChangeCommand(targetWay, newWay));
+                    command = new ChangeCommand(targetWay, newWay);
                 } else if (candidateNode.isTagged()) {
                     JOptionPane.showMessageDialog(MainApplication.getMainFrame(),
                             tr("Cannot delete node that has tags"),
@@ -786,10 +1021,7 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
                 } else {
                     List<Node> nodeList = new ArrayList<>();
                     nodeList.add(candidateNode);
-                    Command deleteCmd = DeleteCommand.delete(nodeList, true);
-                    if (deleteCmd != null) {
-                        UndoRedoHandler.getInstance().add(deleteCmd);
-                    }
+                    command = DeleteCommand.delete(nodeList, true);
                 }
 
 
@@ -797,17 +1029,21 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
                 // Moving the highlighted node
                 EastNorth nodeEN = candidateNode.getEastNorth();
 
+                command = new MoveCommand(candidateNode, newPointEN.east() - nodeEN.east(), newPointEN.north()
+                        - nodeEN.north());
+            }
+
+            if (command != null) {
+                metrics.stop(ImproveWayMetrics.Operation.COMMAND, start);
                 Node saveCandidateNode = candidateNode;
-                UndoRedoHandler.getInstance().add(new MoveCommand(candidateNode, newPointEN.east() - nodeEN.east(), newPointEN.north()
-                        - nodeEN.north()));
+                UndoRedoHandler.getInstance().add(command);
                 candidateNode = saveCandidateNode;
-
             }
         }
 
         updateCursor();
         updateStatusLine();
-        MainApplication.getLayerManager().invalidateEditLayer();
+        updateDynamicOverlay();
     }
 
     @Override
@@ -819,7 +1055,7 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         if (!dragging) {
             mousePos = null;
         }
-        MainApplication.getLayerManager().invalidateEditLayer();
+        updateDynamicOverlay();
     }
 
     // -------------------------------------------------------------------------
@@ -855,34 +1091,306 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
     }
 
     /**
-     * Updates these objects under cursor: targetWay, candidateNode,
-     * candidateSegment
+     * Updates these objects under cursor: targetWay in Selecting state.
+     * In Improving state candidateNode and candidateSegment are found by the
+     * overlay worker, see {@link #requestOverlay()}.
      */
     public void updateCursorDependentObjectsIfNeeded() {
-        if (state == State.improving && (shift || dragging)
-                && !(candidateNode == null && candidateSegment == null)) {
-            return;
+        long start = ImproveWayMetrics.start();
+        if (state == State.selecting && mousePos != null) {
+            targetWay = hoverWayCache.get(getHoverKey(), 0,
+                    () -> hoverAllWays ? findVisibleWay() : ImproveWayAccuracyHelper.findWay(mv, mousePos));
+        } else if (state == State.improving && hoverAllWays && mousePos != null && !shift && !dragging) {
+            // switching only when the target way is out of reach, not while a node
+            // is placed near another way; the selection follows on the next click
+            Way way = hoverWayCache.get(getHoverKey(), 0, this::findVisibleWay);
+            if (way != null && way != targetWay && !isNearTargetWay()) {
+                startImproving(way, false);
+            }
         }
+        metrics.stop(ImproveWayMetrics.Operation.CURSOR_UPDATE, start);
+    }
+
+    /**
+     * Returns the cursor cell, modifiers and view to look up earlier hover results.
+     *
+     * @return the key or {@code null} if the cursor is not over the map
+     */
+    private HoverCache.Key getHoverKey() {
+        if (mv == null || mousePos == null) {
+            return null;
+        }
+        int modifiers = (ctrl ? 1 : 0) | (alt ? 2 : 0) | (shift ? 4 : 0) | (mod4 ? 8 : 0)
+                | (state == State.improving ? 16 : 0);
+        return new HoverCache.Key(mv, mousePos, modifiers);
+    }
+
+    /**
+     * Determines if a segment of the target way is within snap distance of
+     * the cursor.
+     *
+     * @return {@code true} if the target way can still be edited at the cursor
+     */
+    private boolean isNearTargetWay() {
+        return getViewIndex(mv).findNearestSegment(mousePos, snapDistance, targetWay) != null;
+    }
 
-        if (mousePos == null) {
+    /**
+     * Returns the screen index of all visible segments, building it if needed.
+     *
+     * @param mv the map view
+     * @return the index
+     */
+    private ViewSegmentIndex getViewIndex(MapView mv) {
+        DataSet editDataSet = getLayerManager().getEditDataSet();
+        if (viewIndex == null || viewIndex.getDataSet() != editDataSet) {
+            viewIndex = new ViewSegmentIndex(mv, editDataSet);
+        }
+        return viewIndex;
+    }
+
+    /**
+     * Finds the visible way nearest to the cursor with the screen index of
+     * all visible segments.
+     *
+     * @return the way or {@code null} if none is within snap distance
+     */
+    private Way findVisibleWay() {
+        long start = ImproveWayMetrics.start();
+        IWaySegment<Node, Way> segment = getViewIndex(mv).findNearestSegment(mousePos, snapDistance);
+        metrics.stop(ImproveWayMetrics.Operation.FIND_WAY, start);
+        return segment != null ? segment.getWay() : null;
+    }
+
+    /**
+     * Updates the cursor dependent objects on the temporary layer. They are
+     * repainted right away in Selecting state, in Improving state once the
+     * overlay worker delivers them.
+     */
+    private void updateDynamicOverlay() {
+        if (state == State.improving) {
+            requestOverlay();
+        } else {
+            repaintDynamicOverlay();
+        }
+    }
+
+    /**
+     * Asks the overlay worker for candidates and helpers at the current
+     * cursor position. Does not wait for the result.
+     */
+    private void requestOverlay() {
+        OverlayRequest request = createOverlayRequest();
+        if (request != null) {
+            overlayWorker.request(request);
+        }
+    }
+
+    /**
+     * Computes the overlay at the current cursor position and waits for it,
+     * so the candidates are those under the cursor, not those of the last
+     * snapshot delivered.
+     */
+    private void awaitOverlay() {
+        OverlayRequest request = createOverlayRequest();
+        OverlaySnapshot snapshot = request != null ? overlayWorker.computeNow(request) : null;
+        if (snapshot != null) {
+            overlayComputed(snapshot);
+        } else {
+            overlay = null;
             candidateNode = null;
             candidateSegment = null;
+            candidateSegmentNodes = null;
+        }
+    }
+
+    private OverlayRequest createOverlayRequest() {
+        if (state != State.improving || mv == null || targetWay == null) {
+            return null;
+        }
+        // Candidates are kept while locked or while the cursor is outside of the view
+        boolean lock = mousePos == null
+                || ((shift || dragging) && !(candidateNode == null && candidateSegment == null));
+        ProjectionBounds helperBounds = getHelperBounds(mv);
+        return new OverlayRequest(++overlayGeneration, targetWay,
+                mousePos != null ? mv.getEastNorth(mousePos.x, mousePos.y) : null,
+                ctrl, alt, mod4, lock, candidateNode, candidateSegment, candidateSegmentNodes,
+                helpersEnabled, helpersUseOriginal, helperBounds, getLocalPlane(helperBounds),
+                helperWindowNodes, helperWindowMeters, getHoverKey());
+    }
+
+    /**
+     * Returns the local tangent plane of the helper area, if enabled and
+     * accurate enough there. Falls back to great-circle measures otherwise.
+     *
+     * @param helperBounds the helper area
+     * @return the plane or {@code null}
+     */
+    private LocalTangentPlane getLocalPlane(ProjectionBounds helperBounds) {
+        if (!localPrecision || helperBounds == null) {
+            return null;
+        }
+        if (!sameBounds(helperBounds, localPlaneBounds)) {
+            localPlane = LocalTangentPlane.create(ProjectionRegistry.getProjection(), helperBounds, localMaxError);
+            localPlaneBounds = helperBounds;
+        }
+        return localPlane;
+    }
+
+    /**
+     * Returns the area where helpers are computed: the view extended by the
+     * room of arcs of nodes outside of it.
+     *
+     * @param mv the map view
+     * @return the area or {@code null} if the view is not set up yet
+     */
+    ProjectionBounds getHelperBounds(MapView mv) {
+        ProjectionBounds view = mv.getProjectionBounds();
+        if (view == null) {
+            return null;
+        }
+        double margin = (arcRadiusPixels + Math.max(turnTextDistance, distanceTextDistance)) * mv.getScale();
+        return new ProjectionBounds(view.minEast - margin, view.minNorth - margin,
+                view.maxEast + margin, view.maxNorth + margin);
+    }
+
+    private static boolean sameBounds(ProjectionBounds b1, ProjectionBounds b2) {
+        if (b1 == null || b2 == null) {
+            return b1 == b2;
+        }
+        return b1.minEast == b2.minEast && b1.minNorth == b2.minNorth
+                && b1.maxEast == b2.maxEast && b1.maxNorth == b2.maxNorth;
+    }
+
+    /**
+     * Takes a snapshot delivered by the overlay worker and repaints what changed.
+     * Called in the EDT.
+     *
+     * @param snapshot the computed overlay
+     */
+    private void overlayComputed(OverlaySnapshot snapshot) {
+        OverlaySnapshot old = overlay;
+        if (state != State.improving || snapshot.request.way != targetWay
+                || (old != null && snapshot.request.generation < old.request.generation)) {
+            // a newer snapshot is already shown
             return;
         }
+        overlay = snapshot;
+        candidateNode = snapshot.candidateNode;
+        candidateSegment = snapshot.candidateSegment;
+        candidateSegmentNodes = snapshot.candidateSegmentNodes;
+        if (old == null || old.geometryVersion != snapshot.geometryVersion
+                || (old.helpers != null) != (snapshot.helpers != null)
+                || old.request.helpersUseOriginal != snapshot.request.helpersUseOriginal
+                || !sameBounds(old.request.helperBounds, snapshot.request.helperBounds)) {
+            // helpers all over the view may have changed
+            repaintOverlay();
+        } else {
+            repaintDynamicOverlay();
+        }
+    }
+
+    /**
+     * Repaints the whole temporary layer. The data layers are not invalidated,
+     * the map view takes them from its buffers.
+     */
+    private void repaintOverlay() {
+        if (mv == null) {
+            return;
+        }
+        lastDynamicOverlayBounds = getDynamicOverlayBounds();
+        mv.repaint();
+    }
+
+    /**
+     * Repaints the screen area of the cursor dependent objects, as they were
+     * painted in the last frame and as they will be painted in the next one.
+     * Data layers and the rest of the temporary layer are not painted again.
+     */
+    private void repaintDynamicOverlay() {
+        if (mv == null) {
+            return;
+        }
+        Rectangle bounds = getDynamicOverlayBounds();
+        if (state == State.selecting && Objects.equals(bounds, lastDynamicOverlayBounds)) {
+            // still highlighting the same way
+            return;
+        }
+        Rectangle dirty = union(lastDynamicOverlayBounds, bounds);
+        lastDynamicOverlayBounds = bounds;
+        if (dirty != null) {
+            mv.repaint(dirty);
+        }
+    }
 
+    private static Rectangle include(Rectangle bounds, Point p) {
+        if (bounds == null) {
+            return new Rectangle(p.x, p.y, 1, 1);
+        }
+        bounds.add(p);
+        return bounds;
+    }
+
+    private static Rectangle union(Rectangle r1, Rectangle r2) {
+        if (r1 == null || r1.isEmpty()) {
+            return r2 == null || r2.isEmpty() ? null : r2;
+        }
+        return r2 == null || r2.isEmpty() ? r1 : r1.union(r2);
+    }
+
+    /**
+     * Returns the screen area of objects depending on the cursor position:
+     * the highlighted way in Selecting state, preview lines, candidate dot,
+     * turn arcs and labels next to the new point and the equal angle circle
+     * in Improving state.
+     *
+     * @return the screen area or {@code null} if there is nothing to paint
+     */
+    private Rectangle getDynamicOverlayBounds() {
+        Rectangle bounds = null;
         if (state == State.selecting) {
-            targetWay = ImproveWayAccuracyHelper.findWay(mv, mousePos);
-        } else if (state == State.improving) {
-            if (ctrl && !alt) {
-                candidateSegment = ImproveWayAccuracyHelper.findCandidateSegment(mv,
-                        targetWay, mousePos);
-                candidateNode = null;
-            } else {
-                candidateNode = ImproveWayAccuracyHelper.findCandidateNode(mv,
-                        targetWay, mousePos);
-                candidateSegment = null;
+            if (targetWay != null && targetWay.getNodesCount() > 0) {
+                BBox box = targetWay.getBBox();
+                bounds = include(null, mv.getPoint(box.getTopLeft()));
+                bounds.add(mv.getPoint(box.getBottomRight()));
+                bounds.grow(dotSize, dotSize);
             }
+            return bounds;
+        } else if (state != State.improving || overlay == null) {
+            return null;
+        }
+
+        OverlaySnapshot o = overlay;
+        if (o.dynamicBounds != null) {
+            bounds = include(null, mv.getPoint(o.dynamicBounds.getMin()));
+            bounds.add(mv.getPoint(o.dynamicBounds.getMax()));
+        }
+        if (bounds == null) {
+            return null;
+        }
+        int margin = Math.max(dotSize, equalAngleCircleRadius) + 2;
+        if (o.helpers != null) {
+            margin = Math.max(perpendicularLengthPixels,
+                    arcRadiusPixels + Math.max(turnTextDistance, distanceTextDistance) + LABEL_MARGIN);
         }
+        bounds.grow(margin, margin);
+        return bounds;
+    }
+
+    /**
+     * Sets what {@link #paint} draws, without user input and without the
+     * overlay worker. Used by the paint benchmark.
+     *
+     * @param way the highlighted way in Selecting state, the target way in Improving state
+     * @param snapshot the overlay in Improving state or {@code null} for Selecting state
+     */
+    void setPaintedState(Way way, OverlaySnapshot snapshot) {
+        state = snapshot == null ? State.selecting : State.improving;
+        targetWay = way;
+        overlay = snapshot;
+        candidateNode = snapshot != null ? snapshot.candidateNode : null;
+        candidateSegment = snapshot != null ? snapshot.candidateSegment : null;
+        candidateSegmentNodes = snapshot != null ? snapshot.candidateSegmentNodes : null;
     }
 
     /**
@@ -892,8 +1400,10 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         state = State.selecting;
 
         targetWay = null;
+        overlay = null;
+        overlayWorker.setWay(null);
 
-        MainApplication.getLayerManager().invalidateEditLayer();
+        repaintOverlay();
         updateStatusLine();
     }
 
@@ -903,8 +1413,38 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
      * @param targetWay Way that is going to be improved
      */
     public void startImproving(Way targetWay) {
+        startImproving(targetWay, true);
+    }
+
+    /**
+     * Switches to Improving state
+     *
+     * @param targetWay Way that is going to be improved
+     * @param select {@code true} to select the way alone, {@code false} to
+     * leave the selection until the way is edited
+     */
+    private void startImproving(Way targetWay, boolean select) {
         state = State.improving;
 
+        this.targetWay = targetWay;
+        if (select) {
+            selectTargetWay();
+        }
+        this.candidateNode = null;
+        this.candidateSegment = null;
+        this.candidateSegmentNodes = null;
+        this.overlay = null;
+        overlayWorker.setWay(targetWay);
+
+        repaintOverlay();
+        updateStatusLine();
+        requestOverlay();
+    }
+
+    /**
+     * Selects the target way alone, without leaving Improving state.
+     */
+    private void selectTargetWay() {
         Collection<OsmPrimitive> currentSelection = getLayerManager().getEditDataSet().getSelected();
         if (currentSelection.size() != 1
                 || !currentSelection.iterator().next().equals(targetWay)) {
@@ -913,13 +1453,6 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
             getLayerManager().getEditDataSet().setSelected(targetWay.getPrimitiveId());
             selectionChangedBlocked = false;
         }
-
-        this.targetWay = targetWay;
-        this.candidateNode = null;
-        this.candidateSegment = null;
-
-        MainApplication.getLayerManager().invalidateEditLayer();
-        updateStatusLine();
     }
 
     /**
@@ -963,6 +1496,60 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         startSelecting();
     }
 
+    /**
+     * Moves all interior nodes of the target way to their equal-angle points
+     * as a single command. The positions are solved in the background, the
+     * command is not added if the way changed meanwhile.
+     */
+    private void smoothWay() {
+        EqualAngleSmoother smoother = new EqualAngleSmoother(targetWay);
+        MainApplication.worker.execute(() -> {
+            if (!smoother.solve()) {
+                Logging.info("Equal-angle smoothing did not converge in {0} iterations", smoother.getIterations());
+            }
+            GuiHelper.runInEDT(() -> {
+                if (!smoother.isUnchanged()) {
+                    new Notification(tr("The way was not smoothed, it changed meanwhile."))
+                            .setIcon(JOptionPane.WARNING_MESSAGE).show();
+                    return;
+                }
+                long start = ImproveWayMetrics.start();
+                Command command = smoother.createCommand();
+                if (command != null) {
+                    metrics.stop(ImproveWayMetrics.Operation.COMMAND, start);
+                    UndoRedoHandler.getInstance().add(command);
+                }
+            });
+        });
+    }
+
+    /**
+     * Smooths all selected ways in the background and adds the moves as a
+     * single command.
+     */
+    private void smoothSelection() {
+        final DataSet editDataSet = getLayerManager().getEditDataSet();
+        if (editDataSet == null || editDataSet.getSelectedWays().isEmpty()) return;
+        SelectionSmoother smoother = new SelectionSmoother(editDataSet.getSelectedWays());
+        MainApplication.worker.execute(() -> {
+            editDataSet.getReadLock().lock();
+            try {
+                smoother.prepare();
+            } finally {
+                editDataSet.getReadLock().unlock();
+            }
+            // edits are not blocked while solving
+            smoother.solve();
+            GuiHelper.runInEDT(() -> {
+                Command command = smoother.createCommand();
+                if (command != null) {
+                    UndoRedoHandler.getInstance().add(command);
+                }
+                new Notification(smoother.getReport()).setIcon(JOptionPane.INFORMATION_MESSAGE).show();
+            });
+        });
+    }
+
     private void resetTimer() {
         if (longKeypressTimer != null) {
             try {
@@ -979,7 +1566,15 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
     public void doKeyPressed(KeyEvent e) {
         if (e.getKeyCode() == KeyEvent.VK_WINDOWS) {
             mod4 = true;
-            MainApplication.getLayerManager().invalidateEditLayer();
+            updateDynamicOverlay();
+            return;
+        }
+        if (smoothShortcut.isEvent(e)) {
+            if (state == State.improving) {
+                smoothWay();
+            } else {
+                smoothSelection();
+            }
             return;
         }
         if (!helpersShortcut.isEvent(e) && !getShortcut().isEvent(e)) return;
@@ -988,14 +1583,14 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         helpersEnabledBeforeKeypressed = helpersEnabled;
         if (!helpersEnabled) helpersEnabled = true;
         helpersUseOriginal = true;
-        MainApplication.getLayerManager().invalidateEditLayer();
+        updateDynamicOverlay();
     }
 
     @Override
     public void doKeyReleased(KeyEvent e) {
         if (e.getKeyCode() == KeyEvent.VK_WINDOWS) {
             mod4 = false;
-            MainApplication.getLayerManager().invalidateEditLayer();
+            updateDynamicOverlay();
             return;
         }
         if (!helpersShortcut.isEvent(e) && !getShortcut().isEvent(e)) return;
@@ -1010,7 +1605,7 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
             helpersEnabled = !helpersEnabledBeforeKeypressed;
         }
         helpersUseOriginal = false;
-        MainApplication.getLayerManager().invalidateEditLayer();
+        updateDynamicOverlay();
     }
 
     @Override
@@ -1018,7 +1613,7 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
         this.isExpert = isExpert;
         if (!isExpert && helpersEnabled) {
             helpersEnabled = false;
-            MainApplication.getLayerManager().invalidateEditLayer();
+            updateDynamicOverlay();
         }
     }
 
@@ -1026,7 +1621,12 @@ public class ImproveWayAccuracyAction extends MapMode implements MapViewPaintabl
     public void preferenceChanged(PreferenceChangeEvent e) {
         super.preferenceChanged(e);
         if (isEnabled() && (e.getKey().startsWith("improvewayaccuracy") || e.getKey().startsWith("color.improve.way.accuracy"))) {
-            MainApplication.getLayerManager().invalidateEditLayer();
+            if (!debugHud) {
+                hudTimer.stop();
+            } else if (MainApplication.getMap() != null && MainApplication.getMap().mapMode == this) {
+                hudTimer.start();
+            }
+            repaintOverlay();
         }
     }
 }
@@ -2,18 +2,18 @@
 package org.openstreetmap.josm.plugins.improveway;
 
 import java.awt.Point;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.osm.IWaySegment;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
-import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.MapView;
-import org.openstreetmap.josm.tools.Geometry;
-import org.openstreetmap.josm.tools.Pair;
 
 /**
  * This static class contains functions used to find target way, node to move or
@@ -39,6 +39,13 @@ final class ImproveWayAccuracyHelper {
         if (mv == null || p == null) {
             return null;
         }
+        long start = ImproveWayMetrics.start();
+        Way way = findNearestWay(mv, p);
+        ImproveWayMetrics.getInstance().stop(ImproveWayMetrics.Operation.FIND_WAY, start);
+        return way;
+    }
+
+    private static Way findNearestWay(MapView mv, Point p) {
 
         Node node = mv.getNearestNode(p, OsmPrimitive::isSelectable);
         Way candidate = null;
@@ -56,60 +63,28 @@ final class ImproveWayAccuracyHelper {
             }
         }
 
-        return MainApplication.getMap().mapView.getNearestWay(p, OsmPrimitive::isSelectable);
+        return mv.getNearestWay(p, OsmPrimitive::isSelectable);
     }
 
     /**
      * Returns the nearest node to cursor. All nodes that are behind segments
      * are neglected. This is to avoid way self-intersection after moving the
-     * candidateNode to a new place.
+     * candidateNode to a new place. Does not need a map view, so it can be
+     * used off the event dispatch thread.
      *
-     * @param mv the current map view
-     * @param w the way to check
-     * @param p the cursor position
+     * @param geometry the geometry of the way to check
+     * @param pEN the cursor position
      * @return nearest node to cursor
      */
-    public static Node findCandidateNode(MapView mv, Way w, Point p) {
-        if (mv == null || w == null || p == null) {
+    static Node findCandidateNode(WayGeometry geometry, EastNorth pEN) {
+        if (geometry == null || pEN == null) {
             return null;
         }
-
-        EastNorth pEN = mv.getEastNorth(p.x, p.y);
-
-        Double bestDistance = Double.MAX_VALUE;
-        Double currentDistance;
-        List<Pair<Node, Node>> wpps = w.getNodePairs(false);
-
-        Node result = null;
-
-        mainLoop:
-        for (Node n : w.getNodes()) {
-            EastNorth nEN = n.getEastNorth();
-
-            if (nEN == null) {
-                // Might happen if lat/lon for that point are not known.
-                continue;
-            }
-
-            currentDistance = pEN.distance(nEN);
-
-            if (currentDistance < bestDistance) {
-                // Making sure this candidate is not behind any segment.
-                for (Pair<Node, Node> wpp : wpps) {
-                    if (!wpp.a.equals(n)
-                            && !wpp.b.equals(n)
-                            && Geometry.getSegmentSegmentIntersection(
-                            wpp.a.getEastNorth(), wpp.b.getEastNorth(),
-                            pEN, nEN) != null) {
-                        continue mainLoop;
-                    }
-                }
-                result = n;
-                bestDistance = currentDistance;
-            }
-        }
-
-        return result;
+        long start = ImproveWayMetrics.start();
+        // nodes are searched outwards from the cursor in the segment index
+        Node node = geometry.getNodeSearch().find(pEN.east(), pEN.north());
+        ImproveWayMetrics.getInstance().stop(ImproveWayMetrics.Operation.FIND_CANDIDATE_NODE, start);
+        return node;
     }
 
     /**
@@ -118,48 +93,60 @@ final class ImproveWayAccuracyHelper {
      * p to a or b if c is out of ab.
      *
      * The priority is given to segments where c is in ab. Otherwise, a segment
-     * with the largest angle apb is chosen.
+     * with the largest angle apb is chosen. Does not need a map view, so it
+     * can be used off the event dispatch thread.
      *
-     * @param mv the current map view
-     * @param w the way to check
-     * @param p the cursor position
+     * @param geometry the geometry of the way to check
+     * @param pEN the cursor position
      * @return nearest way segment to cursor
      */
-    public static IWaySegment<Node, Way> findCandidateSegment(MapView mv, Way w, Point p) {
-        if (mv == null || w == null || p == null) {
+    static IWaySegment<Node, Way> findCandidateSegment(WayGeometry geometry, EastNorth pEN) {
+        if (geometry == null || pEN == null) {
             return null;
         }
+        long start = ImproveWayMetrics.start();
+        IWaySegment<Node, Way> segment = findNearestSegment(geometry, pEN);
+        ImproveWayMetrics.getInstance().stop(ImproveWayMetrics.Operation.FIND_CANDIDATE_SEGMENT, start);
+        return segment;
+    }
 
-        EastNorth pEN = mv.getEastNorth(p.x, p.y);
+    private static IWaySegment<Node, Way> findNearestSegment(WayGeometry geometry, EastNorth pEN) {
 
-        Double currentDistance;
-        Double currentAngle;
-        Double bestDistance = Double.MAX_VALUE;
-        Double bestAngle = 0.0;
+        double pe = pEN.east();
+        double pn = pEN.north();
 
-        int candidate = -1;
+        double currentDistance;
+        double currentAngle;
+        double bestDistance = Double.MAX_VALUE;
+        double bestAngle = 0.0;
+        double[] closest = new double[2];
 
-        List<Pair<Node, Node>> wpps = w.getNodePairs(true);
+        int candidate = -1;
 
-        int i = -1;
-        for (Pair<Node, Node> wpp : wpps) {
-            ++i;
+        for (int i = 0; i < geometry.getNodesCount() - 1; i++) {
+            double ae = geometry.east(i);
+            double an = geometry.north(i);
+            double be = geometry.east(i + 1);
+            double bn = geometry.north(i + 1);
 
-            EastNorth a = wpp.a.getEastNorth();
-            EastNorth b = wpp.b.getEastNorth();
+            if (Double.isNaN(ae) || Double.isNaN(be)) {
+                continue;
+            }
 
             // Finding intersection of the segment with its altitude from p
-            EastNorth altitudeIntersection = Geometry.closestPointToSegment(a, b, pEN);
-            currentDistance = pEN.distance(altitudeIntersection);
+            double offset = GeometryKernel.closestPointToSegment(ae, an, be, bn, pe, pn, closest);
+            double ce = closest[0];
+            double cn = closest[1];
+            currentDistance = Math.sqrt((pe - ce) * (pe - ce) + (pn - cn) * (pn - cn));
 
-            if (!altitudeIntersection.equals(a) && !altitudeIntersection.equals(b)) {
+            if (offset > 0 && offset < 1) {
                 // If the segment intersects with the altitude from p,
                 // make an angle too big to let this candidate win any others
                 // having the same distance.
                 currentAngle = Double.MAX_VALUE;
             } else {
                 // Otherwise measure the angle
-                currentAngle = Math.abs(Geometry.getCornerAngle(a, pEN, b));
+                currentAngle = Math.abs(GeometryKernel.cornerAngle(ae, an, pe, pn, be, bn));
             }
 
             if (currentDistance < bestDistance
@@ -172,6 +159,63 @@ final class ImproveWayAccuracyHelper {
             }
 
         }
-        return candidate != -1 ? new IWaySegment<>(w, candidate) : null;
+        return candidate != -1 ? new IWaySegment<>(geometry.getWay(), candidate) : null;
+    }
+
+    /**
+     * Returns the point where the turns at the new point and at both of its
+     * neighbours are equal, so that the new point makes a smooth curve.
+     *
+     * @param geometry the geometry of the target way
+     * @param candidateNode node to move or {@code null}
+     * @param candidateSegment segment to divide or {@code null}
+     * @return the point or {@code null} if there are not enough neighbours
+     */
+    static EastNorth findEqualAngleEN(WayGeometry geometry, Node candidateNode,
+            IWaySegment<Node, Way> candidateSegment) {
+        // the points are computed once for the whole way
+        if (candidateNode != null) {
+            int index = geometry.indexOf(candidateNode);
+            return index >= 0 ? geometry.getEqualAngles().getNodePoint(index) : null;
+        } else if (candidateSegment != null) {
+            return geometry.getEqualAngles().getSegmentPoint(candidateSegment.getLowerIndex());
+        }
+        return null;
+    }
+
+    /**
+     * Returns all segments between the two nodes in the ways referring to both
+     * of them, in either direction. Segments of the same way are adjacent in
+     * the result, in ascending index order.
+     *
+     * @param first one end of the segment
+     * @param second the other end of the segment
+     * @return the segments, empty if the nodes are not adjacent in any way
+     */
+    static List<IWaySegment<Node, Way>> findSharedSegments(Node first, Node second) {
+        // referrer lists are short, only ways referring to both nodes are scanned
+        Set<Way> secondWays = new HashSet<>();
+        for (OsmPrimitive referrer : second.getReferrers()) {
+            if (referrer instanceof Way) {
+                secondWays.add((Way) referrer);
+            }
+        }
+        List<IWaySegment<Node, Way>> segments = new ArrayList<>();
+        Set<Way> visited = new HashSet<>();
+        for (OsmPrimitive referrer : first.getReferrers()) {
+            if (!(referrer instanceof Way) || !secondWays.contains(referrer) || !visited.add((Way) referrer)) {
+                continue;
+            }
+            Way way = (Way) referrer;
+            int count = way.getNodesCount();
+            for (int i = 0; i < count - 1; i++) {
+                Node a = way.getNode(i);
+                Node b = way.getNode(i + 1);
+                if ((a == first && b == second) || (a == second && b == first)) {
+                    segments.add(new IWaySegment<>(way, i));
+                }
+            }
+        }
+        return segments;
     }
 }
@@ -0,0 +1,216 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Counters and latency histograms of the hot paths of the Improve Way mode.
+ * Recording is lock free and can be done from any thread.
+ */
+final class ImproveWayMetrics implements ImproveWayMetricsMXBean {
+
+    /** Name of the MBean */
+    static final String OBJECT_NAME = "org.openstreetmap.josm.plugins.improveway:type=Metrics";
+
+    /**
+     * Instrumented operations.
+     */
+    enum Operation {
+        PAINT("paint"),
+        CURSOR_UPDATE("cursor"),
+        OVERLAY("overlay"),
+        FIND_WAY("findWay"),
+        FIND_CANDIDATE_NODE("findNode"),
+        FIND_CANDIDATE_SEGMENT("findSegment"),
+        COMMAND("command");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    // durations below 8 ns have their own bucket, longer ones are split into
+    // 8 buckets per power of two
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final ImproveWayMetrics INSTANCE = new ImproveWayMetrics();
+
+    private final Histogram[] histograms = new Histogram[Operation.values().length];
+
+    private static final class Histogram {
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(bucket(nanos));
+        }
+
+        void reset() {
+            count.reset();
+            total.reset();
+            max.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given fraction of recorded durations.
+         */
+        long percentile(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                sum += counts[i];
+            }
+            long rank = (long) Math.ceil(fraction * sum);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return 0;
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private ImproveWayMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Returns the unique instance.
+     * @return the unique instance
+     */
+    static ImproveWayMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     */
+    void register() {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException | SecurityException e) {
+            Logging.warn(e);
+        }
+    }
+
+    /**
+     * Returns the start time of an operation, to be passed to {@link #stop}.
+     * @return current time in nanoseconds
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param operation the operation
+     * @param start start time returned by {@link #start}
+     */
+    void stop(Operation operation, long start) {
+        histograms[operation.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the statistics of an operation.
+     * @param operation the operation
+     * @return statistics, times in microseconds
+     */
+    OperationStatistics getStatistics(Operation operation) {
+        Histogram h = histograms[operation.ordinal()];
+        long count = h.count.sum();
+        return new OperationStatistics(count,
+                count > 0 ? h.total.sum() / 1000.0 / count : 0,
+                h.percentile(0.5) / 1000.0,
+                h.percentile(0.99) / 1000.0,
+                h.max.get() / 1000.0);
+    }
+
+    @Override
+    public OperationStatistics getPaint() {
+        return getStatistics(Operation.PAINT);
+    }
+
+    @Override
+    public OperationStatistics getCursorUpdate() {
+        return getStatistics(Operation.CURSOR_UPDATE);
+    }
+
+    @Override
+    public OperationStatistics getOverlay() {
+        return getStatistics(Operation.OVERLAY);
+    }
+
+    @Override
+    public OperationStatistics getFindWay() {
+        return getStatistics(Operation.FIND_WAY);
+    }
+
+    @Override
+    public OperationStatistics getFindCandidateNode() {
+        return getStatistics(Operation.FIND_CANDIDATE_NODE);
+    }
+
+    @Override
+    public OperationStatistics getFindCandidateSegment() {
+        return getStatistics(Operation.FIND_CANDIDATE_SEGMENT);
+    }
+
+    @Override
+    public OperationStatistics getCommand() {
+        return getStatistics(Operation.COMMAND);
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram h : histograms) {
+            h.reset();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Timing statistics of the Improve Way mode, as seen by JMX clients like
+ * JConsole or VisualVM.
+ */
+public interface ImproveWayMetricsMXBean {
+
+    /**
+     * Statistics of one instrumented operation. Percentiles are read from a
+     * histogram and are accurate to about 12%.
+     */
+    final class OperationStatistics {
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p99Micros;
+        private final double maxMicros;
+
+        /**
+         * Constructs a new {@code OperationStatistics}.
+         *
+         * @param count number of calls
+         * @param meanMicros mean duration in microseconds
+         * @param p50Micros median duration in microseconds
+         * @param p99Micros 99th percentile of durations in microseconds
+         * @param maxMicros longest duration in microseconds
+         */
+        @ConstructorProperties({"count", "meanMicros", "p50Micros", "p99Micros", "maxMicros"})
+        public OperationStatistics(long count, double meanMicros, double p50Micros, double p99Micros, double maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+
+    /**
+     * Returns statistics of painting the temporary layer.
+     * @return statistics of {@code paint}
+     */
+    OperationStatistics getPaint();
+
+    /**
+     * Returns statistics of updating objects under the cursor on the EDT.
+     * @return statistics of {@code updateCursorDependentObjectsIfNeeded}
+     */
+    OperationStatistics getCursorUpdate();
+
+    /**
+     * Returns statistics of the overlay computation in the background.
+     * @return statistics of the overlay worker
+     */
+    OperationStatistics getOverlay();
+
+    /**
+     * Returns statistics of finding the way under the cursor.
+     * @return statistics of {@code findWay}
+     */
+    OperationStatistics getFindWay();
+
+    /**
+     * Returns statistics of finding the node to move.
+     * @return statistics of {@code findCandidateNode}
+     */
+    OperationStatistics getFindCandidateNode();
+
+    /**
+     * Returns statistics of finding the segment to divide.
+     * @return statistics of {@code findCandidateSegment}
+     */
+    OperationStatistics getFindCandidateSegment();
+
+    /**
+     * Returns statistics of building the command of a click.
+     * @return statistics of the command construction in {@code mouseReleased}
+     */
+    OperationStatistics getCommand();
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+}
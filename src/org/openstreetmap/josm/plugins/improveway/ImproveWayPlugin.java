@@ -11,6 +11,8 @@ public class ImproveWayPlugin extends Plugin {
 
     public ImproveWayPlugin(final PluginInformation info) {
         super(info);
+        // timings of the mode for JMX clients
+        ImproveWayMetrics.getInstance().register();
     }
 
     @Override
@@ -0,0 +1,270 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Positions of the nodes of the target way in the other ways referring to
+ * them, and the coordinates of their neighbours in these ways. Each other way
+ * is scanned once when it is indexed, and scanned again only when its nodes
+ * or the shared nodes of the target way change. The neighbours are kept as
+ * an adjacency of nodes in both directions, so a moved node only updates the
+ * coordinates of the shared nodes next to it.
+ *
+ * The index is maintained on the event dispatch thread from dataset events.
+ * Only {@link #getNeighbours(Node)} may be called from other threads, it
+ * returns coordinates read when the events were applied.
+ */
+final class JunctionIndex {
+
+    /**
+     * A node of the target way in another way.
+     */
+    private static final class Occurrence {
+        final Way way;
+        /** Index of the node in {@link #way} */
+        final int index;
+
+        Occurrence(Way way, int index) {
+            this.way = way;
+            this.index = index;
+        }
+    }
+
+    private static final double[] NO_NEIGHBOURS = new double[0];
+
+    private final Way target;
+    // number of times each node is visited by the target way
+    private final Map<Node, Integer> targetCounts = new HashMap<>();
+    private final Map<Node, List<Occurrence>> occurrences = new HashMap<>();
+    // shared nodes found in each indexed way, to remove its occurrences
+    private final Map<Way, List<Node>> sharedNodes = new HashMap<>();
+    // neighbours of each shared node in other ways
+    private final Map<Node, Node[]> adjacentNodes = new HashMap<>();
+    // shared nodes each node is a neighbour of
+    private final Map<Node, List<Node>> adjacentShared = new HashMap<>();
+    // east and north of the neighbours of each shared node, alternating
+    private final Map<Node, double[]> neighbours = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes the other ways of all nodes of the target way.
+     *
+     * @param wayNodes the nodes of the target way
+     */
+    JunctionIndex(WayNodes wayNodes) {
+        target = wayNodes.way;
+        for (Node node : wayNodes.nodes) {
+            targetCounts.merge(node, 1, Integer::sum);
+        }
+        Set<Way> ways = new LinkedHashSet<>();
+        for (Node node : wayNodes.nodes) {
+            // most nodes are not shared, avoid copying their referrers
+            if (node.isReferredByWays(2)) {
+                addReferrers(node, ways);
+            }
+        }
+        for (Way way : ways) {
+            scan(way);
+        }
+    }
+
+    private void addReferrers(Node node, Set<Way> ways) {
+        for (OsmPrimitive referrer : node.getReferrers()) {
+            if (referrer instanceof Way && referrer != target) {
+                ways.add((Way) referrer);
+            }
+        }
+    }
+
+    /**
+     * Indexes a way again.
+     *
+     * @param way a way other than the target way whose nodes changed, or
+     * which was added or removed
+     */
+    void wayChanged(Way way) {
+        if (way != target) {
+            scan(way);
+        }
+    }
+
+    /**
+     * Updates the neighbour coordinates after a node moved.
+     *
+     * @param node the moved node, of any way
+     */
+    void nodeMoved(Node node) {
+        List<Node> shared = adjacentShared.get(node);
+        if (shared != null) {
+            for (Node sharedNode : shared) {
+                updateCoordinates(sharedNode);
+            }
+        }
+    }
+
+    /**
+     * Indexes the other ways of nodes added to or removed from the target way.
+     *
+     * @param oldNodes the nodes of the target way before the change
+     * @param change the changed nodes
+     */
+    void targetNodesChanged(Node[] oldNodes, WayNodesChange change) {
+        Node[] newNodes = change.replacement.nodes;
+        int removedEnd = change.oldCount - change.suffix;
+        for (int i = change.prefix; i < removedEnd; i++) {
+            targetCounts.merge(oldNodes[i], -1, (count, delta) -> count + delta == 0 ? null : count + delta);
+        }
+        for (Node node : newNodes) {
+            targetCounts.merge(node, 1, Integer::sum);
+        }
+
+        Set<Way> ways = new LinkedHashSet<>();
+        collectChangedNodes(oldNodes, change.prefix, removedEnd, ways);
+        collectChangedNodes(newNodes, 0, newNodes.length, ways);
+        for (Way way : ways) {
+            scan(way);
+        }
+    }
+
+    private void collectChangedNodes(Node[] nodes, int from, int to, Set<Way> ways) {
+        for (int i = from; i < to; i++) {
+            Node node = nodes[i];
+            addReferrers(node, ways);
+            if (!targetCounts.containsKey(node)) {
+                // removed nodes may not be referred by their former ways any more
+                occurrences.remove(node);
+                setAdjacentNodes(node, null);
+            }
+        }
+    }
+
+    private void scan(Way way) {
+        List<Node> shared = sharedNodes.remove(way);
+        if (shared != null) {
+            for (Node node : shared) {
+                List<Occurrence> list = occurrences.get(node);
+                if (list != null) {
+                    list.removeIf(o -> o.way == way);
+                    if (list.isEmpty()) {
+                        occurrences.remove(node);
+                    }
+                }
+                updateNeighbours(node);
+            }
+        }
+        if (way.isDeleted() || way.getDataSet() == null) {
+            return;
+        }
+        shared = null;
+        for (int i = 0; i < way.getNodesCount(); i++) {
+            Node node = way.getNode(i);
+            if (targetCounts.containsKey(node)) {
+                occurrences.computeIfAbsent(node, n -> new ArrayList<>(2)).add(new Occurrence(way, i));
+                if (shared == null) {
+                    shared = new ArrayList<>();
+                }
+                shared.add(node);
+            }
+        }
+        if (shared != null) {
+            sharedNodes.put(way, shared);
+            for (Node node : shared) {
+                updateNeighbours(node);
+            }
+        }
+    }
+
+    /**
+     * Finds the neighbours of a shared node in its other ways again.
+     */
+    private void updateNeighbours(Node node) {
+        List<Occurrence> list = occurrences.get(node);
+        if (list == null) {
+            setAdjacentNodes(node, null);
+            return;
+        }
+        Node[] adjacent = new Node[list.size() * 2];
+        int count = 0;
+        for (Occurrence o : list) {
+            // the way may have changed since it was scanned, it is scanned again on its event
+            if (o.index >= o.way.getNodesCount() || o.way.getNode(o.index) != node) {
+                continue;
+            }
+            if (o.index > 0) {
+                adjacent[count++] = o.way.getNode(o.index - 1);
+            }
+            if (o.index < o.way.getNodesCount() - 1) {
+                adjacent[count++] = o.way.getNode(o.index + 1);
+            }
+        }
+        setAdjacentNodes(node, count == adjacent.length ? adjacent : Arrays.copyOf(adjacent, count));
+    }
+
+    /**
+     * Replaces the neighbours of a shared node in both directions of the adjacency.
+     *
+     * @param node the shared node
+     * @param adjacent its neighbours or {@code null} if it is not shared any more
+     */
+    private void setAdjacentNodes(Node node, Node[] adjacent) {
+        Node[] old = adjacent != null ? adjacentNodes.put(node, adjacent) : adjacentNodes.remove(node);
+        if (old != null) {
+            for (Node neighbour : old) {
+                List<Node> shared = adjacentShared.get(neighbour);
+                if (shared != null && shared.remove(node) && shared.isEmpty()) {
+                    adjacentShared.remove(neighbour);
+                }
+            }
+        }
+        if (adjacent == null) {
+            neighbours.remove(node);
+            return;
+        }
+        for (Node neighbour : adjacent) {
+            adjacentShared.computeIfAbsent(neighbour, n -> new ArrayList<>(2)).add(node);
+        }
+        updateCoordinates(node);
+    }
+
+    /**
+     * Reads the coordinates of the neighbours of a shared node again.
+     */
+    private void updateCoordinates(Node node) {
+        Node[] adjacent = adjacentNodes.get(node);
+        double[] coordinates = new double[adjacent.length * 2];
+        int count = 0;
+        for (Node neighbour : adjacent) {
+            EastNorth en = neighbour.getEastNorth();
+            if (en != null) {
+                coordinates[count++] = en.east();
+                coordinates[count++] = en.north();
+            }
+        }
+        neighbours.put(node, count == coordinates.length ? coordinates : Arrays.copyOf(coordinates, count));
+    }
+
+    /**
+     * Returns the neighbours of a node of the target way in other ways.
+     * Can be called from any thread.
+     *
+     * @param node the node
+     * @return east and north coordinates of the neighbours, alternating;
+     * empty if the node is not shared. The array must not be changed.
+     */
+    double[] getNeighbours(Node node) {
+        double[] coordinates = neighbours.get(node);
+        return coordinates != null ? coordinates : NO_NEIGHBOURS;
+    }
+}
@@ -0,0 +1,134 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.Arrays;
+
+/**
+ * Formatted, measured and laid out helper labels for one font. Turn labels
+ * are whole degrees between 0 and 180 and are all kept. Distance labels are
+ * whole meters, those below a kilometer are all kept too, of the longer ones
+ * the least recently used are evicted. Lookups do not allocate.
+ *
+ * The labels are only valid for the font and rendering context they were
+ * created with, the cache is cleared when either changes.
+ */
+final class LabelCache {
+
+    /**
+     * A label ready to be drawn.
+     */
+    static final class Label {
+        final GlyphVector glyphs;
+        /** Width as returned by {@code FontMetrics.stringWidth} */
+        final int width;
+
+        Label(GlyphVector glyphs, int width) {
+            this.glyphs = glyphs;
+            this.width = width;
+        }
+    }
+
+    private static final int MAX_TURN = 180;
+    private static final int SHORT_DISTANCES = 1000;
+    private static final int LONG_DISTANCE_CAPACITY = 64;
+
+    private Font font;
+    private FontRenderContext frc;
+    private FontMetrics fontMetrics;
+    private final Label[] turns = new Label[MAX_TURN + 1];
+    private final Label[] shortDistances = new Label[SHORT_DISTANCES];
+    // least recently used long distances, searched linearly
+    private final long[] longDistances = new long[LONG_DISTANCE_CAPACITY];
+    private final Label[] longDistanceLabels = new Label[LONG_DISTANCE_CAPACITY];
+    // last lookup of each entry, 0 for free entries
+    private final long[] longDistanceUses = new long[LONG_DISTANCE_CAPACITY];
+    private long uses;
+
+    /**
+     * Prepares the cache for the current font of the graphics.
+     *
+     * @param g the graphics labels will be drawn with
+     */
+    void update(Graphics2D g) {
+        Font currentFont = g.getFont();
+        FontRenderContext currentFrc = g.getFontRenderContext();
+        if (currentFont.equals(font) && currentFrc.equals(frc)) {
+            return;
+        }
+        font = currentFont;
+        frc = currentFrc;
+        fontMetrics = g.getFontMetrics(currentFont);
+        Arrays.fill(turns, null);
+        Arrays.fill(shortDistances, null);
+        Arrays.fill(longDistanceLabels, null);
+        Arrays.fill(longDistanceUses, 0);
+    }
+
+    /**
+     * Returns the font metrics of the labels.
+     * @return the font metrics
+     */
+    FontMetrics getFontMetrics() {
+        return fontMetrics;
+    }
+
+    /**
+     * Returns the label of a turn angle.
+     *
+     * @param turn absolute turn in degrees
+     * @return the label, like {@code "45 °"}
+     */
+    Label getTurn(double turn) {
+        long value = Math.round(turn);
+        if (value < 0 || value > MAX_TURN) {
+            return create("%1.0f °", value);
+        }
+        int i = (int) value;
+        if (turns[i] == null) {
+            turns[i] = create("%1.0f °", value);
+        }
+        return turns[i];
+    }
+
+    /**
+     * Returns the label of a distance.
+     *
+     * @param distance distance in meters
+     * @return the label, like {@code "12 m"}
+     */
+    Label getDistance(double distance) {
+        long value = Math.round(distance);
+        if (value >= 0 && value < SHORT_DISTANCES) {
+            int i = (int) value;
+            if (shortDistances[i] == null) {
+                shortDistances[i] = create("%1.0f m", value);
+            }
+            return shortDistances[i];
+        }
+        int eldest = 0;
+        for (int i = 0; i < LONG_DISTANCE_CAPACITY; i++) {
+            if (longDistanceUses[i] != 0 && longDistances[i] == value) {
+                longDistanceUses[i] = ++uses;
+                return longDistanceLabels[i];
+            }
+            if (longDistanceUses[i] < longDistanceUses[eldest]) {
+                eldest = i;
+            }
+        }
+        Label label = create("%1.0f m", value);
+        longDistances[eldest] = value;
+        longDistanceLabels[eldest] = label;
+        longDistanceUses[eldest] = ++uses;
+        return label;
+    }
+
+    private Label create(String format, long value) {
+        String text = String.format(format, (double) value);
+        return new Label(font.createGlyphVector(frc, text), fontMetrics.stringWidth(text));
+    }
+}
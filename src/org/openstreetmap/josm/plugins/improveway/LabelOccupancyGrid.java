@@ -0,0 +1,86 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.Arrays;
+
+/**
+ * Coarse screen-space grid remembering where helper labels were drawn in the
+ * current frame. Labels overlapping an occupied cell are not drawn.
+ */
+final class LabelOccupancyGrid {
+
+    private final int cellSize;
+    private int columns;
+    private int rows;
+    private boolean[] occupied = new boolean[0];
+
+    /**
+     * Constructs a new {@code LabelOccupancyGrid}.
+     *
+     * @param cellSize size of grid cells in pixels
+     */
+    LabelOccupancyGrid(int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+    }
+
+    /**
+     * Frees all cells and adapts the grid to the screen size.
+     *
+     * @param width screen width in pixels
+     * @param height screen height in pixels
+     */
+    void reset(int width, int height) {
+        columns = Math.max(1, width / cellSize + 1);
+        rows = Math.max(1, height / cellSize + 1);
+        if (occupied.length < columns * rows) {
+            occupied = new boolean[columns * rows];
+        } else {
+            Arrays.fill(occupied, 0, columns * rows, false);
+        }
+    }
+
+    /**
+     * Determines if a point is free. Used to skip labels before measuring them.
+     *
+     * @param x screen x
+     * @param y screen y
+     * @return {@code true} if no label covers the cell of the point
+     */
+    boolean isFree(int x, int y) {
+        int c = x / cellSize;
+        int r = y / cellSize;
+        return x < 0 || y < 0 || c >= columns || r >= rows || !occupied[r * columns + c];
+    }
+
+    /**
+     * Occupies the cells of a rectangle if all of them are free.
+     *
+     * @param x left edge
+     * @param y top edge
+     * @param width rectangle width
+     * @param height rectangle height
+     * @return {@code true} if the rectangle was free and is visible,
+     * {@code false} if it must not be drawn
+     */
+    boolean occupy(int x, int y, int width, int height) {
+        int c1 = Math.max(0, x / cellSize);
+        int r1 = Math.max(0, y / cellSize);
+        int c2 = Math.min(columns - 1, (x + width) / cellSize);
+        int r2 = Math.min(rows - 1, (y + height) / cellSize);
+        if (x + width < 0 || y + height < 0 || c1 > c2 || r1 > r2) {
+            // completely outside of the screen
+            return false;
+        }
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                if (occupied[r * columns + c]) {
+                    return false;
+                }
+            }
+        }
+        for (int r = r1; r <= r2; r++) {
+            Arrays.fill(occupied, r * columns + c1, r * columns + c2 + 1, true);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projection;
+
+/**
+ * Linear approximation of distances and headings around the centre of an
+ * area, replacing the projection and great-circle calculations of the
+ * helpers by a few multiplications.
+ *
+ * Projected coordinates are mapped to metres east and north of the centre
+ * by the derivative of the projection followed by a local equirectangular
+ * projection. The scale error of the approximation grows with the distance
+ * from the centre, about {@code tan(lat) * h / R} at a distance {@code h}
+ * north or south of it, so distances near the edges are the least accurate.
+ * The error is measured on the four sides of the area when the plane is
+ * created: on lines through the centre, like the diagonals, it mostly cancels.
+ */
+final class LocalTangentPlane {
+
+    // radius used by LatLon.greatCircleDistance
+    private static final double EARTH_RADIUS = 6378137;
+
+    // metres east and north per projected unit east and north
+    private final double eastPerEast;
+    private final double eastPerNorth;
+    private final double northPerEast;
+    private final double northPerNorth;
+    private final double errorBound;
+
+    private LocalTangentPlane(Projection projection, ProjectionBounds bounds) {
+        EastNorth center = bounds.getCenter();
+        LatLon origin = projection.eastNorth2latlon(center);
+        double cosLat = Math.cos(Math.toRadians(origin.lat()));
+        double step = Math.max(bounds.maxEast - bounds.minEast, bounds.maxNorth - bounds.minNorth) / 1000;
+        if (!(step > 0)) {
+            step = 1;
+        }
+
+        LatLon east1 = projection.eastNorth2latlon(new EastNorth(center.east() - step, center.north()));
+        LatLon east2 = projection.eastNorth2latlon(new EastNorth(center.east() + step, center.north()));
+        LatLon north1 = projection.eastNorth2latlon(new EastNorth(center.east(), center.north() - step));
+        LatLon north2 = projection.eastNorth2latlon(new EastNorth(center.east(), center.north() + step));
+        double metresPerLon = Math.toRadians(EARTH_RADIUS) * cosLat;
+        double metresPerLat = Math.toRadians(EARTH_RADIUS);
+        eastPerEast = (east2.lon() - east1.lon()) * metresPerLon / (2 * step);
+        northPerEast = (east2.lat() - east1.lat()) * metresPerLat / (2 * step);
+        eastPerNorth = (north2.lon() - north1.lon()) * metresPerLon / (2 * step);
+        northPerNorth = (north2.lat() - north1.lat()) * metresPerLat / (2 * step);
+
+        errorBound = Math.max(
+                Math.max(lineError(projection, bounds.minEast, bounds.minNorth, bounds.maxEast, bounds.minNorth),
+                        lineError(projection, bounds.minEast, bounds.maxNorth, bounds.maxEast, bounds.maxNorth)),
+                Math.max(lineError(projection, bounds.minEast, bounds.minNorth, bounds.minEast, bounds.maxNorth),
+                        lineError(projection, bounds.maxEast, bounds.minNorth, bounds.maxEast, bounds.maxNorth)));
+    }
+
+    private double lineError(Projection projection, double e1, double n1, double e2, double n2) {
+        double exact = projection.eastNorth2latlon(new EastNorth(e1, n1))
+                .greatCircleDistance(projection.eastNorth2latlon(new EastNorth(e2, n2)));
+        return Math.abs(distance(e1, n1, e2, n2) - exact);
+    }
+
+    /**
+     * Creates the plane for an area if it is accurate enough there.
+     *
+     * @param projection the projection of the coordinates
+     * @param bounds the area where distances will be measured
+     * @param maxError largest accepted error of distances across the area in metres
+     * @return the plane or {@code null} if the area is too large for the accuracy
+     */
+    static LocalTangentPlane create(Projection projection, ProjectionBounds bounds, double maxError) {
+        if (projection == null || bounds == null) {
+            return null;
+        }
+        LocalTangentPlane plane = new LocalTangentPlane(projection, bounds);
+        return plane.errorBound <= maxError ? plane : null;
+    }
+
+    /**
+     * Returns the largest difference between the approximated and the
+     * great-circle length of the sides of the area.
+     *
+     * @return error in metres
+     */
+    double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * Returns the distance between two points.
+     *
+     * @param e1 east coordinate of the first point
+     * @param n1 north coordinate of the first point
+     * @param e2 east coordinate of the second point
+     * @param n2 north coordinate of the second point
+     * @return distance in metres
+     */
+    double distance(double e1, double n1, double e2, double n2) {
+        double de = e2 - e1;
+        double dn = n2 - n1;
+        return Math.hypot(eastPerEast * de + eastPerNorth * dn, northPerEast * de + northPerNorth * dn);
+    }
+
+    /**
+     * Returns the heading from one point to another as used by the helpers,
+     * see {@link WayMeasures#heading}.
+     *
+     * @param e1 east coordinate of the first point
+     * @param n1 north coordinate of the first point
+     * @param e2 east coordinate of the second point
+     * @param n2 north coordinate of the second point
+     * @return heading in degrees
+     */
+    double heading(double e1, double n1, double e2, double n2) {
+        double de = e2 - e1;
+        double dn = n2 - n1;
+        double bearing = Math.atan2(eastPerEast * de + eastPerNorth * dn, northPerEast * de + northPerNorth * dn);
+        return WayMeasures.fixHeading(-90 + Math.toDegrees(bearing));
+    }
+}
@@ -0,0 +1,113 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+
+import org.openstreetmap.josm.data.osm.Node;
+
+/**
+ * Search of the node of a way nearest to a point that is not behind a
+ * segment of the way. Nodes are found through the segments ending at them,
+ * in rings of cells of the {@link WaySegmentIndex} around the point, until
+ * the rings are farther than the nearest node found. Nodes of ways with a
+ * single node are tested directly, nodes without a segment of known
+ * coordinates are not found.
+ *
+ * The search keeps its state in fields, so it does not allocate. It must
+ * only be used by the thread owning the geometry.
+ */
+final class NearestNodeSearch {
+
+    private final WayGeometry geometry;
+    private final IntToDoubleFunction visitSegment = this::visitSegment;
+    private final IntPredicate crossesSegment = this::crossesSegment;
+
+    // state of the current search
+    private double pe;
+    private double pn;
+    private int tested;
+    private double bestDistance;
+    private int result;
+    // search in which each node was tested last, to test nodes of several segments once
+    private int[] testedIn = new int[0];
+    private int search;
+
+    /**
+     * Constructs a new {@code NearestNodeSearch}.
+     *
+     * @param geometry the geometry of the way to search
+     */
+    NearestNodeSearch(WayGeometry geometry) {
+        this.geometry = geometry;
+    }
+
+    /**
+     * Returns the nearest node to a point that is not behind any segment.
+     *
+     * @param e east coordinate of the point
+     * @param n north coordinate of the point
+     * @return the node or {@code null} if there is none
+     */
+    Node find(double e, double n) {
+        pe = e;
+        pn = n;
+        bestDistance = Double.MAX_VALUE;
+        result = -1;
+        if (testedIn.length < geometry.getNodesCount()) {
+            testedIn = Arrays.copyOf(testedIn, Math.max(geometry.getNodesCount(), testedIn.length * 2));
+        }
+        if (++search == 0) {
+            // wrapped around, all nodes would look tested in an earlier search
+            Arrays.fill(testedIn, 0);
+            search = 1;
+        }
+        if (geometry.getNodesCount() == 1) {
+            testNode(0);
+        } else {
+            geometry.getSegmentIndex().visitNear(e, n, visitSegment);
+        }
+        return result != -1 ? geometry.getNode(result) : null;
+    }
+
+    private double visitSegment(int s) {
+        testNode(s);
+        testNode(s + 1);
+        return bestDistance;
+    }
+
+    private void testNode(int i) {
+        if (testedIn[i] == search) {
+            return;
+        }
+        testedIn[i] = search;
+        double ne = geometry.east(i);
+        double nn = geometry.north(i);
+        if (Double.isNaN(ne)) {
+            // Might happen if lat/lon for that point are not known.
+            return;
+        }
+        double currentDistance = Math.sqrt((ne - pe) * (ne - pe) + (nn - pn) * (nn - pn));
+        // of equally distant nodes the first one in the way wins
+        if (currentDistance < bestDistance || (currentDistance == bestDistance && i < result)) {
+            // Making sure this candidate is not behind any segment.
+            // Only segments near the line from cursor to node can cross it.
+            tested = i;
+            if (geometry.getSegmentIndex().anySegmentInBox(pe, pn, ne, nn, crossesSegment)) {
+                return;
+            }
+            result = i;
+            bestDistance = currentDistance;
+        }
+    }
+
+    private boolean crossesSegment(int s) {
+        Node node = geometry.getNode(tested);
+        return !geometry.getNode(s).equals(node)
+                && !geometry.getNode(s + 1).equals(node)
+                && GeometryKernel.segmentSegmentIntersection(
+                geometry.east(s), geometry.north(s), geometry.east(s + 1), geometry.north(s + 1),
+                pe, pn, geometry.east(tested), geometry.north(tested), null);
+    }
+}
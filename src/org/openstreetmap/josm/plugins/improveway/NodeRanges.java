@@ -0,0 +1,74 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+/**
+ * Sorted list of disjoint, inclusive node index ranges. Ranges must be added
+ * in ascending order of their start, overlapping or touching ranges are
+ * merged.
+ */
+final class NodeRanges {
+
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int count;
+
+    /**
+     * Removes all ranges.
+     */
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * Adds a range of node indexes.
+     *
+     * @param from first index
+     * @param to last index, inclusive
+     */
+    void add(int from, int to) {
+        if (from > to) {
+            return;
+        }
+        if (count > 0 && from <= ends[count - 1] + 1) {
+            ends[count - 1] = Math.max(ends[count - 1], to);
+            return;
+        }
+        if (count == starts.length) {
+            int[] grownStarts = new int[count * 2];
+            int[] grownEnds = new int[count * 2];
+            System.arraycopy(starts, 0, grownStarts, 0, count);
+            System.arraycopy(ends, 0, grownEnds, 0, count);
+            starts = grownStarts;
+            ends = grownEnds;
+        }
+        starts[count] = from;
+        ends[count] = to;
+        count++;
+    }
+
+    /**
+     * Returns the number of ranges.
+     * @return the number of ranges
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the first index of a range.
+     * @param k range number
+     * @return first node index
+     */
+    int getStart(int k) {
+        return starts[k];
+    }
+
+    /**
+     * Returns the last index of a range.
+     * @param k range number
+     * @return last node index, inclusive
+     */
+    int getEnd(int k) {
+        return ends[k];
+    }
+}
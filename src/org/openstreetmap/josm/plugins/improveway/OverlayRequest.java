@@ -0,0 +1,88 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.IWaySegment;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Immutable input of the {@link OverlayWorker}: everything the computation
+ * of the Improving state overlay needs from the event dispatch thread.
+ */
+final class OverlayRequest {
+
+    /** Increasing number of the request, newer requests supersede older ones */
+    final int generation;
+    /** The target way */
+    final Way way;
+    /** Cursor position or {@code null} if the cursor is not over the map */
+    final EastNorth mouseEN;
+    final boolean ctrl;
+    final boolean alt;
+    /** Windows/Super/Meta key, places the new point at the equal angle point */
+    final boolean mod4;
+    /** Keep {@link #candidateNode} and {@link #candidateSegment} instead of searching new ones */
+    final boolean lockCandidates;
+    final Node candidateNode;
+    final IWaySegment<Node, Way> candidateSegment;
+    /** Nodes of {@link #candidateSegment} when it was found, to tell if its indexes still match */
+    final Node[] candidateSegmentNodes;
+    final boolean helpersEnabled;
+    final boolean helpersUseOriginal;
+    /** Area where helpers are computed, the view extended by the room needed for arcs */
+    final ProjectionBounds helperBounds;
+    /** Approximation of helper measures in {@link #helperBounds} or {@code null} for great-circle measures */
+    final LocalTangentPlane plane;
+    /** Helpers are computed for this many nodes around the candidates only, 0 for no limit */
+    final int helperWindowNodes;
+    /** Helpers are computed for this distance in meters around the candidates only, 0 for no limit */
+    final double helperWindowMeters;
+    /** Cursor cell and view to look up earlier candidates or {@code null} to search anyway */
+    final HoverCache.Key hoverKey;
+
+    /**
+     * Constructs a new {@code OverlayRequest}.
+     *
+     * @param generation number of the request
+     * @param way the target way
+     * @param mouseEN cursor position, can be {@code null}
+     * @param ctrl Ctrl key state
+     * @param alt Alt key state
+     * @param mod4 Windows/Super/Meta key state
+     * @param lockCandidates keep the given candidates
+     * @param candidateNode current node to move, can be {@code null}
+     * @param candidateSegment current segment to divide, can be {@code null}
+     * @param candidateSegmentNodes nodes of the current segment when it was found, can be {@code null}
+     * @param helpersEnabled helpers are shown
+     * @param helpersUseOriginal helpers measure the original way instead of the preview
+     * @param helperBounds area where helpers are computed
+     * @param plane approximation of helper measures, can be {@code null}
+     * @param helperWindowNodes nodes with helpers around the candidates, 0 for no limit
+     * @param helperWindowMeters distance with helpers around the candidates, 0 for no limit
+     * @param hoverKey cursor cell and view, can be {@code null}
+     */
+    OverlayRequest(int generation, Way way, EastNorth mouseEN, boolean ctrl, boolean alt, boolean mod4,
+            boolean lockCandidates, Node candidateNode, IWaySegment<Node, Way> candidateSegment,
+            Node[] candidateSegmentNodes, boolean helpersEnabled, boolean helpersUseOriginal, ProjectionBounds helperBounds,
+            LocalTangentPlane plane, int helperWindowNodes, double helperWindowMeters, HoverCache.Key hoverKey) {
+        this.generation = generation;
+        this.way = way;
+        this.mouseEN = mouseEN;
+        this.ctrl = ctrl;
+        this.alt = alt;
+        this.mod4 = mod4;
+        this.lockCandidates = lockCandidates;
+        this.candidateNode = candidateNode;
+        this.candidateSegment = candidateSegment;
+        this.candidateSegmentNodes = candidateSegmentNodes;
+        this.helpersEnabled = helpersEnabled;
+        this.helpersUseOriginal = helpersUseOriginal;
+        this.helperBounds = helperBounds;
+        this.plane = plane;
+        this.helperWindowNodes = helperWindowNodes;
+        this.helperWindowMeters = helperWindowMeters;
+        this.hoverKey = hoverKey;
+    }
+}
@@ -0,0 +1,127 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.IWaySegment;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Immutable result of the {@link OverlayWorker}: the candidates under the
+ * cursor and everything needed to paint the Improving state overlay, in
+ * east/north coordinates. Painting it does not need any geometry work.
+ */
+final class OverlaySnapshot {
+
+    /** The request this snapshot was computed for */
+    final OverlayRequest request;
+    /** Version of the way geometry the snapshot was computed from */
+    final int geometryVersion;
+    final Node candidateNode;
+    final IWaySegment<Node, Way> candidateSegment;
+    /** First and second node of {@link #candidateSegment} in the geometry it was found in or {@code null} */
+    final Node[] candidateSegmentNodes;
+    /** Position of {@link #candidateNode} or {@code null} */
+    final EastNorth candidateEN;
+    /** Position of the new point or {@code null} if unknown */
+    final EastNorth newPointEN;
+    /** Point of equal turns at the new point and its neighbours or {@code null} */
+    final EastNorth equalAngleEN;
+    /** Ends of the preview lines or {@code null} */
+    final EastNorth neighbour1EN;
+    final EastNorth neighbour2EN;
+    /** Mean east/north segment length of the way, for the level of detail */
+    final double meanSegmentLength;
+    /**
+     * East and north coordinates of the neighbours of {@link #candidateNode}
+     * in other ways, alternating, or {@code null} if not shown
+     */
+    final double[] intersectingNeighbours;
+    /** Turns and lengths shown by the helpers or {@code null} if they are disabled */
+    final HelperPoints helpers;
+    /** Area of the objects depending on the cursor position or {@code null} */
+    final ProjectionBounds dynamicBounds;
+
+    /**
+     * Points visited by the helpers, in the order they are drawn. Each point
+     * holds the measures of the segment ending at it and the turn at the
+     * previous point.
+     */
+    static final class HelperPoints {
+        final int count;
+        final double[] east;
+        final double[] north;
+        /** The point starts a new run of points, it has no segment and turn */
+        final boolean[] first;
+        /** Heading of the segment ending at the point in degrees */
+        final double[] heading;
+        /** Length of the segment ending at the point in meters or {@code NaN} if it is not labeled */
+        final double[] distance;
+        /** Signed turn at the previous point in degrees or {@code NaN} if not shown */
+        final double[] turn;
+        /** Index of the point in the target way or -1 for the new point */
+        final int[] node;
+        /**
+         * The segment ending at the point or the turn at the previous point
+         * depends on the new point, all other values are the same for any candidate
+         */
+        final boolean[] dynamic;
+
+        HelperPoints(int count, double[] east, double[] north, boolean[] first,
+                double[] heading, double[] distance, double[] turn, int[] node, boolean[] dynamic) {
+            this.count = count;
+            this.east = east;
+            this.north = north;
+            this.node = node;
+            this.dynamic = dynamic;
+            this.first = first;
+            this.heading = heading;
+            this.distance = distance;
+            this.turn = turn;
+        }
+    }
+
+    OverlaySnapshot(OverlayRequest request, int geometryVersion, Node candidateNode,
+            IWaySegment<Node, Way> candidateSegment, Node[] candidateSegmentNodes, EastNorth candidateEN, EastNorth newPointEN,
+            EastNorth equalAngleEN, EastNorth neighbour1EN, EastNorth neighbour2EN,
+            double meanSegmentLength, double[] intersectingNeighbours, HelperPoints helpers) {
+        this.request = request;
+        this.geometryVersion = geometryVersion;
+        this.candidateNode = candidateNode;
+        this.candidateSegment = candidateSegment;
+        this.candidateSegmentNodes = candidateSegmentNodes;
+        this.candidateEN = candidateEN;
+        this.newPointEN = newPointEN;
+        this.equalAngleEN = equalAngleEN;
+        this.neighbour1EN = neighbour1EN;
+        this.neighbour2EN = neighbour2EN;
+        this.meanSegmentLength = meanSegmentLength;
+        this.intersectingNeighbours = intersectingNeighbours;
+        this.helpers = helpers;
+
+        ProjectionBounds bounds = null;
+        for (EastNorth en : new EastNorth[] {candidateEN, neighbour1EN, neighbour2EN, newPointEN,
+                helpers != null ? equalAngleEN : null}) {
+            if (en == null) {
+                continue;
+            }
+            if (bounds == null) {
+                bounds = new ProjectionBounds(en);
+            } else {
+                bounds.extend(en);
+            }
+        }
+        if (intersectingNeighbours != null) {
+            for (int k = 0; k < intersectingNeighbours.length; k += 2) {
+                EastNorth en = new EastNorth(intersectingNeighbours[k], intersectingNeighbours[k + 1]);
+                if (bounds == null) {
+                    bounds = new ProjectionBounds(en);
+                } else {
+                    bounds.extend(en);
+                }
+            }
+        }
+        this.dynamicBounds = bounds;
+    }
+}
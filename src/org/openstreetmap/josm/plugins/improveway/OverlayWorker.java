@@ -0,0 +1,574 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.openstreetmap.josm.data.ProjectionBounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.IWaySegment;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.gui.util.GuiHelper;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Computes the Improving state overlay off the event dispatch thread.
+ *
+ * The geometry of the target way is owned by a single background thread,
+ * which never reads the dataset: nodes and coordinates are read on the event
+ * dispatch thread when the way is set or changes, see {@link WayNodes}.
+ * Dataset changes are queued to it as patches and are never dropped, while
+ * overlay requests only keep the latest one: each request is computed by its
+ * own task, after the patches queued before it, and is skipped if a newer
+ * request exists by then. A running computation is abandoned when a newer
+ * request arrives. Results are handed to the consumer on the event dispatch
+ * thread, or returned to it by {@link #computeNow(OverlayRequest)}.
+ */
+final class OverlayWorker {
+
+    // a superseded computation is still finished if nothing was delivered for this long,
+    // so the overlay keeps up with fast cursor moves over long ways
+    private static final long MAX_SKIP_NANOS = 100_000_000L;
+
+    private final Consumer<OverlaySnapshot> consumer;
+    private final ThreadPoolExecutor executor;
+    private volatile int latestGeneration;
+    private volatile long lastDelivery;
+
+    // confined to the event dispatch thread
+    private Way way;
+    // nodes of the way as last read, to read only the changed ones
+    private Node[] nodes;
+    // maintained on the event dispatch thread, neighbours are read by the worker
+    private volatile JunctionIndex junctions;
+
+    // owned by the worker thread
+    private WayGeometry geometry;
+    private int[] visibleSegments = new int[64];
+    private int visibleSegmentsCount;
+    private final NodeRanges visibleRanges = new NodeRanges();
+    private final HoverCache<Node> nodeCache = new HoverCache<>();
+    private final HoverCache<IWaySegment<Node, Way>> segmentCache = new HoverCache<>();
+
+    /**
+     * Constructs a new {@code OverlayWorker}.
+     *
+     * @param consumer receives the computed snapshots on the event dispatch thread
+     */
+    OverlayWorker(Consumer<OverlaySnapshot> consumer) {
+        this.consumer = consumer;
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                Utils.newThreadFactory("improveway-overlay-%d", Thread.NORM_PRIORITY));
+        // no idle thread is kept while the mode is not used
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private void execute(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Logging.error(e);
+            }
+        });
+    }
+
+    /**
+     * Starts working on another way. Must be called on the event dispatch thread.
+     *
+     * @param way the target way or {@code null} to release the current one
+     */
+    void setWay(Way way) {
+        this.way = way;
+        WayNodes wayNodes = way != null ? WayNodes.read(way) : null;
+        nodes = wayNodes != null ? wayNodes.nodes : null;
+        junctions = wayNodes != null ? new JunctionIndex(wayNodes) : null;
+        execute(() -> {
+            geometry = wayNodes != null ? new WayGeometry(wayNodes) : null;
+            nodeCache.clear();
+            segmentCache.clear();
+        });
+    }
+
+    /**
+     * Queues a dataset change to be applied to the geometry of the target way.
+     * Must be called on the event dispatch thread, the changed nodes and
+     * coordinates are read right away.
+     *
+     * @param event the dataset event
+     */
+    void datasetChanged(AbstractDatasetChangedEvent event) {
+        if (way == null) {
+            return;
+        }
+        List<Consumer<WayGeometry>> patches = new ArrayList<>();
+        readPatches(event, patches);
+        execute(() -> {
+            if (geometry != null) {
+                for (Consumer<WayGeometry> patch : patches) {
+                    patch.accept(geometry);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the moved, added or removed nodes of an event into patches of the
+     * geometry snapshot of the target way. Junctions are updated right away.
+     */
+    private void readPatches(AbstractDatasetChangedEvent event, List<Consumer<WayGeometry>> patches) {
+        if (event instanceof NodeMovedEvent) {
+            Node node = ((NodeMovedEvent) event).getNode();
+            EastNorth en = node.getEastNorth();
+            LatLon coor = node.getCoor();
+            patches.add(g -> g.nodeMoved(node, en, coor));
+            junctions.nodeMoved(node);
+        } else if (event instanceof WayNodesChangedEvent) {
+            Way changedWay = ((WayNodesChangedEvent) event).getChangedWay();
+            if (changedWay == way) {
+                WayNodesChange change = WayNodesChange.read(way, nodes);
+                Node[] oldNodes = nodes;
+                nodes = change.apply(oldNodes);
+                patches.add(g -> g.wayNodesChanged(change));
+                junctions.targetNodesChanged(oldNodes, change);
+            } else {
+                junctions.wayChanged(changedWay);
+            }
+        } else if (event instanceof PrimitivesAddedEvent || event instanceof PrimitivesRemovedEvent) {
+            for (OsmPrimitive primitive : event.getPrimitives()) {
+                if (primitive instanceof Way) {
+                    junctions.wayChanged((Way) primitive);
+                }
+            }
+        } else if (event instanceof DataChangedEvent) {
+            List<AbstractDatasetChangedEvent> events = ((DataChangedEvent) event).getEvents();
+            if (events == null) {
+                WayNodes wayNodes = WayNodes.read(way);
+                nodes = wayNodes.nodes;
+                patches.add(g -> g.reload(wayNodes));
+                junctions = new JunctionIndex(wayNodes);
+            } else {
+                for (AbstractDatasetChangedEvent e : events) {
+                    readPatches(e, patches);
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests a new overlay. Supersedes all earlier requests. Never blocks.
+     *
+     * @param request the request
+     */
+    void request(OverlayRequest request) {
+        latestGeneration = request.generation;
+        // queued after the patches of earlier dataset changes
+        execute(() -> computeRequest(request));
+    }
+
+    /**
+     * Computes an overlay and waits for it, after the patches queued before.
+     * Supersedes all earlier requests. Must be called on the event dispatch
+     * thread, the snapshot is not handed to the consumer.
+     *
+     * @param request the request
+     * @return the snapshot or {@code null} if the way was released meanwhile
+     */
+    OverlaySnapshot computeNow(OverlayRequest request) {
+        latestGeneration = request.generation;
+        Future<OverlaySnapshot> result = executor.submit(() -> compute(request));
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Logging.error(e);
+            return null;
+        }
+    }
+
+    private void computeRequest(OverlayRequest request) {
+        if (request.generation != latestGeneration) {
+            // a newer request is queued after this one, and after any patches
+            // it has to see, so the geometry may not match this request yet
+            return;
+        }
+        long start = ImproveWayMetrics.start();
+        OverlaySnapshot snapshot = compute(request);
+        ImproveWayMetrics.getInstance().stop(ImproveWayMetrics.Operation.OVERLAY, start);
+        if (snapshot != null) {
+            lastDelivery = System.nanoTime();
+            GuiHelper.runInEDT(() -> consumer.accept(snapshot));
+        }
+    }
+
+    /**
+     * Returns the candidate found for the cursor cell of the request before,
+     * unless the way changed since.
+     */
+    private <T> T findCached(HoverCache<T> cache, OverlayRequest request, Supplier<T> search) {
+        return cache.get(request.hoverKey, geometry.getVersion(), search);
+    }
+
+    private boolean isCancelled(OverlayRequest request) {
+        return request.generation != latestGeneration
+                && System.nanoTime() - lastDelivery < MAX_SKIP_NANOS;
+    }
+
+    private EastNorth getEastNorth(int index) {
+        if (index < 0 || Double.isNaN(geometry.east(index))) {
+            return null;
+        }
+        return new EastNorth(geometry.east(index), geometry.north(index));
+    }
+
+    /**
+     * Computes the overlay for a request.
+     *
+     * @param request the request
+     * @return the snapshot or {@code null} if the request is stale
+     */
+    private OverlaySnapshot compute(OverlayRequest request) {
+        if (geometry == null || geometry.getWay() != request.way) {
+            return null;
+        }
+
+        Node candidateNode = null;
+        IWaySegment<Node, Way> candidateSegment = null;
+        if (request.lockCandidates || request.mouseEN == null) {
+            // candidates of an earlier snapshot, the way may have changed since
+            if (request.candidateNode != null && geometry.indexOf(request.candidateNode) >= 0) {
+                candidateNode = request.candidateNode;
+            }
+            if (request.candidateSegment != null && request.candidateSegment.getWay() == request.way
+                    && isSegment(request.candidateSegment.getLowerIndex(), request.candidateSegmentNodes)) {
+                candidateSegment = request.candidateSegment;
+            }
+        } else if (request.ctrl && !request.alt) {
+            candidateSegment = findCached(segmentCache, request,
+                    () -> ImproveWayAccuracyHelper.findCandidateSegment(geometry, request.mouseEN));
+        } else {
+            candidateNode = findCached(nodeCache, request,
+                    () -> ImproveWayAccuracyHelper.findCandidateNode(geometry, request.mouseEN));
+        }
+        if (isCancelled(request)) {
+            return null;
+        }
+
+        EastNorth equalAngleEN = ImproveWayAccuracyHelper.findEqualAngleEN(geometry, candidateNode, candidateSegment);
+        EastNorth newPointEN = request.mod4 ? equalAngleEN : request.mouseEN;
+
+        // Finding endpoints of the preview lines
+        int neighbour1 = -1;
+        int neighbour2 = -1;
+        int candidateIndex = candidateNode != null ? geometry.indexOf(candidateNode) : -1;
+        int last = geometry.getNodesCount() - 1;
+        if (request.ctrl && candidateSegment != null) {
+            neighbour1 = candidateSegment.getLowerIndex();
+            neighbour2 = candidateSegment.getUpperIndex();
+        } else if (!(request.alt ^ request.ctrl) && candidateIndex >= 0) {
+            neighbour1 = candidateIndex < last ? candidateIndex + 1 : -1;
+            neighbour2 = candidateIndex > 0 ? candidateIndex - 1 : -1;
+            if (geometry.isClosed() && candidateIndex == 0) {
+                neighbour2 = last - 1;
+            }
+        } else if (request.alt && !request.ctrl && candidateIndex > 0 && candidateIndex < last) {
+            // Only draw line if node is not first and/or last
+            neighbour1 = candidateIndex - 1;
+            neighbour2 = candidateIndex + 1;
+        }
+
+        // the index may already belong to the next way, which does not share the candidate node
+        JunctionIndex index = junctions;
+        double[] intersectingNeighbours = !request.alt && !request.ctrl && candidateNode != null && index != null
+                ? index.getNeighbours(candidateNode) : null;
+
+        OverlaySnapshot.HelperPoints helpers = null;
+        if (request.helpersEnabled) {
+            helpers = computeHelpers(request, candidateNode, candidateSegment, newPointEN);
+            if (helpers == null) {
+                return null;
+            }
+        }
+
+        Node[] candidateSegmentNodes = candidateSegment != null ? new Node[] {
+                geometry.getNode(candidateSegment.getLowerIndex()), geometry.getNode(candidateSegment.getUpperIndex())
+        } : null;
+        return new OverlaySnapshot(request, geometry.getVersion(), candidateNode, candidateSegment, candidateSegmentNodes,
+                getEastNorth(candidateIndex), newPointEN, equalAngleEN,
+                getEastNorth(neighbour1), getEastNorth(neighbour2),
+                geometry.getMeanSegmentLength(), intersectingNeighbours, helpers);
+    }
+
+    /**
+     * Determines if a segment still connects the same nodes, nodes added or
+     * removed before it shift its index.
+     *
+     * @param lowerIndex index of the first node of the segment
+     * @param nodes first and second node of the segment when it was found
+     * @return {@code true} if the segment is still there
+     */
+    private boolean isSegment(int lowerIndex, Node[] nodes) {
+        return nodes != null && lowerIndex + 1 < geometry.getNodesCount()
+                && geometry.getNode(lowerIndex) == nodes[0] && geometry.getNode(lowerIndex + 1) == nodes[1];
+    }
+
+    /**
+     * Collects turns and lengths of the visible part of the way, as it will
+     * look after the edit unless the original is measured.
+     *
+     * @return the helper points or {@code null} if the request was cancelled
+     */
+    private OverlaySnapshot.HelperPoints computeHelpers(OverlayRequest request, Node candidateNode,
+            IWaySegment<Node, Way> candidateSegment, EastNorth newPointEN) {
+        // Segments and turns of real nodes are read from the geometry,
+        // only those touched by the virtual point are computed here.
+        WayMeasures measures = geometry.getMeasures();
+        int nodesCount = geometry.getNodesCount();
+        int endLoop = nodesCount;
+        if (geometry.isClosed()) endLoop++;
+        if (request.helperWindowNodes > 0 || request.helperWindowMeters > 0) {
+            updateWindowRanges(request, candidateNode, candidateSegment, endLoop);
+        } else {
+            updateVisibleRanges(request.helperBounds, endLoop);
+        }
+
+        int capacity = 0;
+        for (int range = 0; range < visibleRanges.getCount(); range++) {
+            // one more for the virtual point
+            capacity += visibleRanges.getEnd(range) - visibleRanges.getStart(range) + 2;
+        }
+        double[] east = new double[capacity];
+        double[] north = new double[capacity];
+        boolean[] first = new boolean[capacity];
+        double[] headings = new double[capacity];
+        double[] distances = new double[capacity];
+        double[] turns = new double[capacity];
+        int[] indexes = new int[capacity];
+        boolean[] dynamic = new boolean[capacity];
+        int count = 0;
+
+        boolean useVirtual = !request.helpersUseOriginal && newPointEN != null;
+        LatLon newPointCoor = useVirtual && request.plane == null
+                ? ProjectionRegistry.getProjection().eastNorth2latlon(newPointEN) : null;
+        boolean candidateSegmentVisited = false;
+        // read from the geometry, the way may have changed since
+        Node candidateSegmentSecond = candidateSegment != null ? geometry.getNode(candidateSegment.getUpperIndex()) : null;
+        for (int range = 0; range < visibleRanges.getCount(); range++) {
+            if (isCancelled(request)) {
+                return null;
+            }
+            Node node;
+            LatLon coor;
+            LatLon lastcoor = null;
+            double distance;
+            double heading;
+            double lastheading = 0;
+            int nodeCounter = 0;
+            int index;
+            int lastindex = -1;
+            int segment;
+            int lastsegment = -1;
+            for (int i = visibleRanges.getStart(range); i <= visibleRanges.getEnd(range); i++) {
+                // when way is closed we visit second node again
+                // to get turn for start/end node
+                index = i == nodesCount ? 1 : i;
+                node = geometry.getNode(index);
+                if (useVirtual &&
+                    request.ctrl &&
+                    !candidateSegmentVisited &&
+                    candidateSegmentSecond == node
+                ) {
+                    node = null;
+                    index = -1;
+                    coor = newPointCoor;
+                    east[count] = newPointEN.east();
+                    north[count] = newPointEN.north();
+                    candidateSegmentVisited = true;
+                    i--;
+                } else if (useVirtual && !request.alt && !request.ctrl && node == candidateNode) {
+                    node = null;
+                    index = -1;
+                    coor = newPointCoor;
+                    east[count] = newPointEN.east();
+                    north[count] = newPointEN.north();
+                } else if (!request.helpersUseOriginal && request.alt && !request.ctrl && node == candidateNode) {
+                    continue;
+                } else {
+                    // read lazily, only needed next to the virtual point
+                    coor = null;
+                    east[count] = geometry.east(index);
+                    north[count] = geometry.north(index);
+                }
+                indexes[count] = index;
+                dynamic[count] = index < 0;
+                first[count] = nodeCounter == 0;
+                headings[count] = Double.NaN;
+                distances[count] = Double.NaN;
+                turns[count] = Double.NaN;
+                if (nodeCounter >= 1) {
+                    segment = -1;
+                    if (lastindex >= 0 && index == lastindex + 1) {
+                        segment = lastindex;
+                    } else if (lastindex == nodesCount - 1 && index == 1) {
+                        segment = 0;
+                    }
+                    if (segment >= 0) {
+                        heading = measures.getHeading(segment);
+                        distance = measures.getLength(segment);
+                    } else if (request.plane != null) {
+                        heading = request.plane.heading(east[count - 1], north[count - 1], east[count], north[count]);
+                        distance = request.plane.distance(east[count - 1], north[count - 1], east[count], north[count]);
+                    } else {
+                        if (lastcoor == null) lastcoor = geometry.getCoor(lastindex);
+                        if (coor == null) coor = geometry.getCoor(index);
+                        heading = WayMeasures.heading(lastcoor, coor);
+                        distance = lastcoor.greatCircleDistance(coor);
+                    }
+                    headings[count] = heading;
+                    dynamic[count] |= segment < 0 || (nodeCounter >= 2 && lastsegment < 0);
+                    if (nodeCounter >= 2) {
+                        turns[count] = segment >= 0 && lastsegment >= 0
+                                ? measures.getTurn(lastindex)
+                                : WayMeasures.fixHeading(heading - lastheading);
+                    }
+                    // avoid doubling first segment on closed ways
+                    if (i != nodesCount) {
+                        distances[count] = distance;
+                    }
+                    lastheading = heading;
+                    lastsegment = segment;
+                }
+                lastindex = index;
+                lastcoor = coor;
+                count++;
+                nodeCounter++;
+            }
+        }
+        return new OverlaySnapshot.HelperPoints(count, east, north, first, headings, distances, turns, indexes, dynamic);
+    }
+
+    /**
+     * Collects ranges of the helper loop in the window around the candidates,
+     * extended by one segment on each side to measure the turns at the ends of
+     * the window. On closed ways the window can wrap around the closing node.
+     * Nothing is collected without candidates.
+     *
+     * @param request the request with the size of the window
+     * @param candidateNode node to move or {@code null}
+     * @param candidateSegment segment to divide or {@code null}
+     * @param endLoop number of nodes visited by the helper loop
+     */
+    private void updateWindowRanges(OverlayRequest request, Node candidateNode,
+            IWaySegment<Node, Way> candidateSegment, int endLoop) {
+        visibleRanges.clear();
+        int from;
+        int to;
+        if (candidateNode != null) {
+            from = geometry.indexOf(candidateNode);
+            to = from;
+        } else if (candidateSegment != null) {
+            from = candidateSegment.getLowerIndex();
+            to = candidateSegment.getUpperIndex();
+        } else {
+            return;
+        }
+        if (from < 0) {
+            return;
+        }
+
+        // first and last node of the window, beyond the ends of closed ways if it wraps
+        int nodesCount = geometry.getNodesCount();
+        boolean closed = geometry.isClosed();
+        int period = closed ? nodesCount - 1 : 0;
+        int first;
+        int last;
+        if (request.helperWindowNodes > 0) {
+            first = from - request.helperWindowNodes;
+            last = to + request.helperWindowNodes;
+        } else {
+            WayMeasures measures = geometry.getMeasures();
+            double total = measures.getDistance(nodesCount - 1);
+            double start = measures.getDistance(from) - request.helperWindowMeters;
+            double end = measures.getDistance(to) + request.helperWindowMeters;
+            first = start >= 0 || !closed
+                    ? measures.findNode(start, false) + 1
+                    : measures.findNode(total + start, false) + 1 - period;
+            last = end <= total || !closed
+                    ? measures.findNode(end, true)
+                    : measures.findNode(end - total, true) + period;
+        }
+
+        int lo = first - 1;
+        int hi = last + 1;
+        if (!closed) {
+            visibleRanges.add(Math.max(0, lo), Math.min(endLoop - 1, hi));
+        } else if (hi - lo > period) {
+            visibleRanges.add(0, endLoop - 1);
+        } else if (lo < 0) {
+            visibleRanges.add(0, hi);
+            visibleRanges.add(Math.max(0, lo + period), endLoop - 1);
+        } else if (hi > endLoop - 1) {
+            visibleRanges.add(0, hi - period);
+            visibleRanges.add(lo, endLoop - 1);
+        } else {
+            visibleRanges.add(lo, hi);
+        }
+    }
+
+    /**
+     * Collects ranges of the helper loop around segments crossing the
+     * visible area. Ranges include one more segment on each side, so turns of
+     * visible nodes can be measured.
+     *
+     * @param visible the visible area or {@code null} for the whole way
+     * @param endLoop number of nodes visited by the helper loop
+     */
+    private void updateVisibleRanges(ProjectionBounds visible, int endLoop) {
+        visibleRanges.clear();
+        visibleSegmentsCount = 0;
+        if (visible == null) {
+            visibleRanges.add(0, endLoop - 1);
+            return;
+        }
+        geometry.getSegmentIndex().anySegmentInBox(
+                visible.minEast, visible.minNorth, visible.maxEast, visible.maxNorth, s -> {
+                    if (visibleSegmentsCount == visibleSegments.length) {
+                        visibleSegments = Arrays.copyOf(visibleSegments, visibleSegmentsCount * 2);
+                    }
+                    visibleSegments[visibleSegmentsCount++] = s;
+                    return false;
+                });
+        Arrays.sort(visibleSegments, 0, visibleSegmentsCount);
+        for (int k = 0; k < visibleSegmentsCount; k++) {
+            int s = visibleSegments[k];
+            visibleRanges.add(Math.max(0, s - 1), Math.min(endLoop - 1, s + 2));
+        }
+        // On closed ways the first segment is visited again after the last
+        // node, to measure the turn at the first/last node.
+        int nodesCount = geometry.getNodesCount();
+        if (endLoop > nodesCount && visibleSegmentsCount > 0 && visibleSegments[0] == 0) {
+            visibleRanges.add(nodesCount - 2, endLoop - 1);
+        }
+    }
+}
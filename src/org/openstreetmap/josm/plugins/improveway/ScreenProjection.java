@@ -0,0 +1,121 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.Point;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+
+/**
+ * Screen positions of the nodes of a way for one view. The nodes are
+ * projected together with the affine transform of the view, and the
+ * positions are kept until the view or the way changes.
+ *
+ * Single points are projected with the same transform, without going
+ * through the view.
+ */
+final class ScreenProjection {
+
+    // m00, m10, m01, m11, m02, m12 as returned by AffineTransform.getMatrix
+    private final double[] matrix = new double[6];
+    private final double[] newMatrix = new double[6];
+    private Way way;
+    private boolean valid;
+    private int count;
+    // NaN for nodes with unknown coordinates
+    private float[] x = new float[0];
+    private float[] y = new float[0];
+
+    /**
+     * Projects the nodes of the way again if the view or the way changed
+     * since the last call.
+     *
+     * @param nc the view
+     * @param way the way, can be {@code null}
+     * @return {@code true} if the nodes were projected again
+     */
+    boolean update(NavigatableComponent nc, Way way) {
+        AffineTransform transform = nc.getAffineTransform();
+        transform.getMatrix(newMatrix);
+        if (valid && way == this.way && Arrays.equals(matrix, newMatrix)) {
+            return false;
+        }
+        System.arraycopy(newMatrix, 0, matrix, 0, matrix.length);
+        this.way = way;
+        valid = true;
+        count = way != null ? way.getNodesCount() : 0;
+        if (x.length < count) {
+            x = new float[count];
+            y = new float[count];
+        }
+        for (int i = 0; i < count; i++) {
+            EastNorth en = way.getNode(i).getEastNorth();
+            if (en == null) {
+                x[i] = Float.NaN;
+                y[i] = Float.NaN;
+            } else {
+                x[i] = (float) projectX(en.east(), en.north());
+                y[i] = (float) projectY(en.east(), en.north());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks the positions as outdated, e.g. after nodes of the way moved.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Returns the number of projected nodes.
+     * @return the number of nodes of the way at the last projection
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the screen x coordinate of a node.
+     * @param i node index
+     * @return x coordinate or {@code NaN} if the node has no coordinates
+     */
+    float getX(int i) {
+        return x[i];
+    }
+
+    /**
+     * Returns the screen y coordinate of a node.
+     * @param i node index
+     * @return y coordinate or {@code NaN} if the node has no coordinates
+     */
+    float getY(int i) {
+        return y[i];
+    }
+
+    /**
+     * Projects a single point, like {@code MapView.getPoint(EastNorth)}.
+     *
+     * @param east east coordinate
+     * @param north north coordinate
+     * @param result receives the screen position
+     * @return {@code result}
+     */
+    Point project(double east, double north, Point result) {
+        result.x = (int) projectX(east, north);
+        result.y = (int) projectY(east, north);
+        return result;
+    }
+
+    private double projectX(double east, double north) {
+        return matrix[0] * east + matrix[2] * north + matrix[4];
+    }
+
+    private double projectY(double east, double north) {
+        return matrix[1] * east + matrix[3] * north + matrix[5];
+    }
+}
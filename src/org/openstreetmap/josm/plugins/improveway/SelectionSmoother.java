@@ -0,0 +1,137 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+import static org.openstreetmap.josm.tools.I18n.trn;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.command.SequenceCommand;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Smooths many ways at once with {@link EqualAngleSmoother}, one way per
+ * task of the common fork-join pool.
+ *
+ * Nodes shared between ways are never moved by the smoother, so the ways can
+ * be solved independently. The ways are read by {@link #prepare()} only, and
+ * solved without holding the lock of the data set. The moves of all ways
+ * that did not change meanwhile are combined into a single command, with a
+ * summary of the measured ways for the user.
+ */
+final class SelectionSmoother {
+
+    /**
+     * Measures and smoothing result of one way.
+     */
+    private static final class Result {
+        final Way way;
+        final EqualAngleSmoother smoother;
+        final int segments;
+        final double length;
+        final int sharpTurns;
+        boolean converged;
+        boolean changed;
+        List<Command> moves = Collections.emptyList();
+
+        Result(Way way) {
+            this.way = way;
+            smoother = new EqualAngleSmoother(way);
+            segments = Math.max(0, way.getNodesCount() - 1);
+            length = way.getLength();
+            sharpTurns = smoother.countSharpTurns();
+        }
+    }
+
+    private final List<Way> ways;
+    private List<Result> results;
+
+    /**
+     * Prepares smoothing of the ways.
+     *
+     * @param ways the ways to smooth
+     */
+    SelectionSmoother(Collection<Way> ways) {
+        this.ways = new ArrayList<>(ways);
+    }
+
+    /**
+     * Reads and measures the ways. Can be run outside of the EDT while the
+     * read lock of the data set is held.
+     */
+    void prepare() {
+        results = ways.parallelStream()
+                .filter(Way::isUsable)
+                .map(Result::new)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Smooths the ways read by {@link #prepare()}. Does not read the data set.
+     */
+    void solve() {
+        results.parallelStream().forEach(result -> result.converged = result.smoother.solve());
+    }
+
+    /**
+     * Returns a command moving the nodes of all ways, skipping ways deleted
+     * or changed since {@link #prepare()}. Must be called on the EDT.
+     *
+     * @return the command or {@code null} if no node moves
+     */
+    Command createCommand() {
+        List<Command> moves = new ArrayList<>();
+        int changedWays = 0;
+        for (Result result : results) {
+            result.changed = !result.way.isUsable() || !result.smoother.isUnchanged();
+            result.moves = result.changed ? Collections.emptyList() : result.smoother.createMoves();
+            if (!result.moves.isEmpty()) {
+                moves.addAll(result.moves);
+                changedWays++;
+            }
+        }
+        if (moves.isEmpty()) return null;
+        return new SequenceCommand(trn("Smooth {0} way", "Smooth {0} ways", changedWays, changedWays), moves);
+    }
+
+    /**
+     * Returns a summary of the measures and smoothing of the ways, after
+     * {@link #createCommand()}.
+     *
+     * @return the summary as HTML
+     */
+    String getReport() {
+        int segments = 0;
+        double length = 0;
+        int sharpTurns = 0;
+        int moved = 0;
+        int notConverged = 0;
+        int changed = 0;
+        for (Result result : results) {
+            segments += result.segments;
+            length += result.length;
+            sharpTurns += result.sharpTurns;
+            moved += result.moves.size();
+            if (!result.converged) {
+                notConverged++;
+            }
+            if (result.changed) {
+                changed++;
+            }
+        }
+        return "<html>"
+                + trn("Smoothed {0} way", "Smoothed {0} ways", results.size(), results.size()) + "<br>"
+                + trn("{0} node moved", "{0} nodes moved", moved, moved) + "<br>"
+                + tr("Mean segment length: {0} m", String.format("%.2f", segments > 0 ? length / segments : 0)) + "<br>"
+                + trn("{0} sharp turn kept", "{0} sharp turns kept", sharpTurns, sharpTurns) + "<br>"
+                + trn("{0} way did not converge", "{0} ways did not converge", notConverged, notConverged) + "<br>"
+                + trn("{0} way changed meanwhile and was skipped", "{0} ways changed meanwhile and were skipped",
+                        changed, changed)
+                + "</html>";
+    }
+}
@@ -0,0 +1,233 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.awt.Point;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.IWaySegment;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.MapView;
+
+/**
+ * Uniform grid over the screen positions of all segments of the selectable
+ * ways in the map view. Finds the segment nearest to the cursor by checking
+ * the few cells around it only. The visible segments of each way are also
+ * kept in the order of the way, to draw them without visiting the others.
+ *
+ * Screen positions are taken when the index is built, it has to be rebuilt
+ * after the view or the data changed.
+ */
+final class ViewSegmentIndex {
+
+    private static final int CELL_SIZE = 32;
+
+    private final DataSet dataSet;
+    private final Way[] ways;
+    private final Map<Way, Integer> wayIndexes = new HashMap<>();
+    // segments of way w are wayStart[w]..wayStart[w + 1], in ascending node order
+    private final int[] wayStart;
+    // per segment: index into ways, lower node index and screen coordinates
+    private final int[] segmentWay;
+    private final int[] segmentIndex;
+    private final float[] x1;
+    private final float[] y1;
+    private final float[] x2;
+    private final float[] y2;
+    private final int columns;
+    private final int rows;
+    // segments of cell c are cellSegments[cellStart[c]..cellStart[c + 1])
+    private final int[] cellStart;
+    private final int[] cellSegments;
+
+    /**
+     * Builds the index for the current view.
+     *
+     * @param mv the map view
+     * @param dataSet the data set to index
+     */
+    ViewSegmentIndex(MapView mv, DataSet dataSet) {
+        this.dataSet = dataSet;
+        int width = Math.max(1, mv.getWidth());
+        int height = Math.max(1, mv.getHeight());
+        columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+
+        List<Way> visibleWays = new ArrayList<>();
+        int capacity = 0;
+        if (dataSet != null && mv.getRealBounds() != null) {
+            for (Way way : dataSet.searchWays(new BBox(mv.getRealBounds()))) {
+                if (way.isSelectable() && way.isUsable() && !way.isIncomplete() && way.getNodesCount() > 1) {
+                    visibleWays.add(way);
+                    capacity += way.getNodesCount() - 1;
+                }
+            }
+        }
+        ways = visibleWays.toArray(new Way[0]);
+        wayStart = new int[ways.length + 1];
+        segmentWay = new int[capacity];
+        segmentIndex = new int[capacity];
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        x2 = new float[capacity];
+        y2 = new float[capacity];
+
+        int count = 0;
+        for (int w = 0; w < ways.length; w++) {
+            wayIndexes.put(ways[w], w);
+            wayStart[w] = count;
+            Point2D previous = null;
+            for (int i = 0; i < ways[w].getNodesCount(); i++) {
+                Node node = ways[w].getNode(i);
+                Point2D point = node.isLatLonKnown() ? mv.getPoint2D(node.getEastNorth()) : null;
+                if (previous != null && point != null
+                        && intersectsView(previous, point, width, height)) {
+                    segmentWay[count] = w;
+                    segmentIndex[count] = i - 1;
+                    x1[count] = (float) previous.getX();
+                    y1[count] = (float) previous.getY();
+                    x2[count] = (float) point.getX();
+                    y2[count] = (float) point.getY();
+                    count++;
+                }
+                previous = point;
+            }
+        }
+        wayStart[ways.length] = count;
+
+        // counting sort of the segments into the cells covered by their bounding boxes
+        cellStart = new int[columns * rows + 1];
+        for (int s = 0; s < count; s++) {
+            forEachCell(s, cell -> cellStart[cell + 1]++);
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        cellSegments = new int[cellStart[columns * rows]];
+        for (int s = 0; s < count; s++) {
+            final int segment = s;
+            forEachCell(s, cell -> cellSegments[fill[cell]++] = segment);
+        }
+    }
+
+    private static boolean intersectsView(Point2D a, Point2D b, int width, int height) {
+        return Math.max(a.getX(), b.getX()) >= 0 && Math.min(a.getX(), b.getX()) <= width
+                && Math.max(a.getY(), b.getY()) >= 0 && Math.min(a.getY(), b.getY()) <= height;
+    }
+
+    private void forEachCell(int s, IntConsumer consumer) {
+        int c1 = column(Math.min(x1[s], x2[s]));
+        int c2 = column(Math.max(x1[s], x2[s]));
+        int r1 = row(Math.min(y1[s], y2[s]));
+        int r2 = row(Math.max(y1[s], y2[s]));
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                consumer.accept(r * columns + c);
+            }
+        }
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / CELL_SIZE)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL_SIZE)));
+    }
+
+    /**
+     * Returns the indexed data set.
+     * @return the data set given to the constructor
+     */
+    DataSet getDataSet() {
+        return dataSet;
+    }
+
+    /**
+     * Finds the segment nearest to a screen position.
+     *
+     * @param p the screen position
+     * @param maxDistance largest distance in pixels
+     * @return the segment or {@code null} if there is none closer than {@code maxDistance}
+     */
+    IWaySegment<Node, Way> findNearestSegment(Point p, double maxDistance) {
+        return findNearestSegment(p, maxDistance, null);
+    }
+
+    /**
+     * Finds the segment of a way nearest to a screen position.
+     *
+     * @param p the screen position
+     * @param maxDistance largest distance in pixels
+     * @param way the way whose segments are searched, {@code null} for all ways
+     * @return the segment or {@code null} if there is none closer than {@code maxDistance}
+     */
+    IWaySegment<Node, Way> findNearestSegment(Point p, double maxDistance, Way way) {
+        int c1 = column(p.x - maxDistance);
+        int c2 = column(p.x + maxDistance);
+        int r1 = row(p.y - maxDistance);
+        int r2 = row(p.y + maxDistance);
+        double bestDistanceSq = maxDistance * maxDistance;
+        int best = -1;
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                int cell = r * columns + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int s = cellSegments[k];
+                    if (way != null && ways[segmentWay[s]] != way) {
+                        continue;
+                    }
+                    double distanceSq = distanceSq(s, p.x, p.y);
+                    if (distanceSq < bestDistanceSq) {
+                        bestDistanceSq = distanceSq;
+                        best = s;
+                    }
+                }
+            }
+        }
+        return best >= 0 ? new IWaySegment<>(ways[segmentWay[best]], segmentIndex[best]) : null;
+    }
+
+    /**
+     * Adds the visible segments of a way to a path, as lines connected where
+     * the segments are adjacent in the way.
+     *
+     * @param way the way
+     * @param path the path to add the lines to
+     */
+    void appendSegments(Way way, Path2D path) {
+        Integer w = wayIndexes.get(way);
+        if (w == null) {
+            return;
+        }
+        int previous = -2;
+        for (int s = wayStart[w]; s < wayStart[w + 1]; s++) {
+            if (segmentIndex[s] != previous + 1) {
+                path.moveTo((int) x1[s], (int) y1[s]);
+            }
+            path.lineTo((int) x2[s], (int) y2[s]);
+            previous = segmentIndex[s];
+        }
+    }
+
+    private double distanceSq(int s, double px, double py) {
+        double dx = x2[s] - x1[s];
+        double dy = y2[s] - y1[s];
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq > 0 ? ((px - x1[s]) * dx + (py - y1[s]) * dy) / lengthSq : 0;
+        t = Math.max(0, Math.min(1, t));
+        double ex = x1[s] + t * dx - px;
+        double ey = y1[s] + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,320 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Snapshot of the geometry of the target way in flat arrays. Node
+ * coordinates are stored in parallel {@code east}, {@code north}, {@code lat}
+ * and {@code lon} arrays and nodes can be looked up by their index. Unknown
+ * coordinates are stored as {@code NaN}.
+ *
+ * The snapshot is patched by {@link #nodeMoved(Node, EastNorth, LatLon)} and
+ * {@link #wayNodesChanged(WayNodesChange)} instead of being read again from the way.
+ * It only uses coordinates handed to it, never those of the nodes, so it can
+ * be owned by a thread that does not lock the dataset.
+ */
+final class WayGeometry {
+
+    private final Way way;
+    private Node[] nodes;
+    private double[] east;
+    private double[] north;
+    private double[] lat;
+    private double[] lon;
+    private boolean closed;
+    private final Map<Node, Integer> indexes = new HashMap<>();
+    // true if the way visits a node more than once, apart from closing it
+    private boolean repeatedNodes;
+    private WaySegmentIndex segmentIndex;
+    private WayMeasures measures;
+    private EqualAngleTable equalAngles;
+    private final NearestNodeSearch nodeSearch = new NearestNodeSearch(this);
+    private double meanSegmentLength = Double.NaN;
+    // incremented on every change
+    private int version;
+
+    /**
+     * Creates a snapshot of the geometry of a way.
+     *
+     * @param wayNodes the nodes and coordinates of the way
+     */
+    WayGeometry(WayNodes wayNodes) {
+        this.way = wayNodes.way;
+        reload(wayNodes);
+    }
+
+    /**
+     * Replaces all nodes and coordinates.
+     *
+     * @param wayNodes the current nodes and coordinates of the way
+     */
+    void reload(WayNodes wayNodes) {
+        nodes = wayNodes.nodes.clone();
+        east = wayNodes.east.clone();
+        north = wayNodes.north.clone();
+        lat = wayNodes.lat.clone();
+        lon = wayNodes.lon.clone();
+        closed = wayNodes.closed;
+        meanSegmentLength = Double.NaN;
+        version++;
+        reindex(0);
+        segmentIndex = new WaySegmentIndex(this);
+        measures = new WayMeasures(this);
+        equalAngles = new EqualAngleTable(this);
+    }
+
+    private void setCoordinates(int i, EastNorth en, LatLon coor) {
+        east[i] = en != null ? en.east() : Double.NaN;
+        north[i] = en != null ? en.north() : Double.NaN;
+        lat[i] = coor != null ? coor.lat() : Double.NaN;
+        lon[i] = coor != null ? coor.lon() : Double.NaN;
+    }
+
+    /**
+     * Updates node indexes starting at the given position. Entries of nodes
+     * at and after this position must have been removed before. Falls back to
+     * indexing all nodes if the way visits a node twice.
+     */
+    private void reindex(int from) {
+        int start = from;
+        if (start == 0 || repeatedNodes) {
+            indexes.clear();
+            start = 0;
+        }
+        repeatedNodes = false;
+        int end = closed ? nodes.length - 1 : nodes.length;
+        for (int i = start; i < end; i++) {
+            // keep the first occurrence
+            if (indexes.putIfAbsent(nodes[i], i) != null) {
+                repeatedNodes = true;
+            }
+        }
+    }
+
+    /**
+     * Updates the coordinates of a moved node.
+     *
+     * @param node the node that was moved
+     * @param en the new east/north coordinates, {@code null} if unknown
+     * @param coor the new lat/lon coordinates, {@code null} if unknown
+     * @return {@code true} if the node belongs to the way
+     */
+    boolean nodeMoved(Node node, EastNorth en, LatLon coor) {
+        Integer index = indexes.get(node);
+        if (index == null) {
+            return false;
+        }
+        if (repeatedNodes) {
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodes[i] == node) {
+                    moveNode(i, en, coor);
+                }
+            }
+        } else {
+            moveNode(index, en, coor);
+            if (closed && index == 0) {
+                moveNode(nodes.length - 1, en, coor);
+            }
+        }
+        return true;
+    }
+
+    private void moveNode(int i, EastNorth en, LatLon coor) {
+        meanSegmentLength = Double.NaN;
+        version++;
+        // segments starting and ending at the node
+        if (i > 0) segmentIndex.removeSegment(i - 1);
+        if (i < nodes.length - 1) segmentIndex.removeSegment(i);
+        setCoordinates(i, en, coor);
+        if (i > 0) segmentIndex.addSegment(i - 1);
+        if (i < nodes.length - 1) segmentIndex.addSegment(i);
+        measures.nodeMoved(i);
+        equalAngles.nodeMoved(i);
+    }
+
+    /**
+     * Updates the snapshot after nodes were added to or removed from the way.
+     * Only the changed part of the node list is read, indexed and measured
+     * again, the unchanged nodes after it are renumbered.
+     *
+     * @param change the changed nodes, read from the nodes of this snapshot
+     */
+    void wayNodesChanged(WayNodesChange change) {
+        if (change.isEmpty()) {
+            return;
+        }
+        int prefix = change.prefix;
+        int suffix = change.suffix;
+        int oldCount = nodes.length;
+        int newCount = change.count;
+
+        if (!repeatedNodes) {
+            int oldEnd = closed ? oldCount - 1 : oldCount;
+            for (int i = prefix; i < oldEnd; i++) {
+                indexes.remove(nodes[i]);
+            }
+        }
+        // segments touching changed nodes, while their old coordinates are known
+        for (int s = Math.max(0, prefix - 1); s < Math.min(oldCount - suffix, oldCount - 1); s++) {
+            segmentIndex.removeSegment(s);
+        }
+
+        WayNodes replacement = change.replacement;
+        nodes = change.apply(nodes);
+        east = change.apply(east, replacement.east);
+        north = change.apply(north, replacement.north);
+        lat = change.apply(lat, replacement.lat);
+        lon = change.apply(lon, replacement.lon);
+
+        meanSegmentLength = Double.NaN;
+        version++;
+        boolean wasClosed = closed;
+        closed = replacement.closed;
+        reindex(wasClosed == closed ? prefix : 0);
+        segmentIndex.renumberSegments(newCount - suffix, newCount - 1, newCount - oldCount);
+        for (int s = Math.max(0, prefix - 1); s < Math.min(newCount - suffix, newCount - 1); s++) {
+            segmentIndex.addSegment(s);
+        }
+        measures.nodesReplaced(prefix, oldCount, suffix);
+        equalAngles.nodesReplaced(prefix, oldCount, suffix);
+    }
+
+    /**
+     * Returns the way of this snapshot.
+     * @return the way
+     */
+    Way getWay() {
+        return way;
+    }
+
+    /**
+     * Returns the version of the snapshot, which changes whenever the
+     * snapshot is patched or read again.
+     * @return the version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of nodes, the closing node of closed ways included.
+     * @return the number of nodes
+     */
+    int getNodesCount() {
+        return nodes.length;
+    }
+
+    /**
+     * Determines if the way is closed.
+     * @return {@code true} if the first and last nodes are the same
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the node at the given index.
+     * @param i node index
+     * @return the node
+     */
+    Node getNode(int i) {
+        return nodes[i];
+    }
+
+    /**
+     * Returns the east coordinate of the node at the given index.
+     * @param i node index
+     * @return east coordinate or {@code NaN} if unknown
+     */
+    double east(int i) {
+        return east[i];
+    }
+
+    /**
+     * Returns the north coordinate of the node at the given index.
+     * @param i node index
+     * @return north coordinate or {@code NaN} if unknown
+     */
+    double north(int i) {
+        return north[i];
+    }
+
+    /**
+     * Returns the lat/lon coordinates of the node at the given index.
+     * @param i node index
+     * @return the coordinates or {@code null} if unknown
+     */
+    LatLon getCoor(int i) {
+        return Double.isNaN(lat[i]) ? null : new LatLon(lat[i], lon[i]);
+    }
+
+    /**
+     * Returns the index of the first occurrence of the node in the way.
+     * @param node the node
+     * @return node index or -1 if the node is not part of the way
+     */
+    int indexOf(Node node) {
+        Integer index = indexes.get(node);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the mean east/north length of the segments with known coordinates.
+     * @return mean segment length or {@code NaN} if there are no such segments
+     */
+    double getMeanSegmentLength() {
+        if (Double.isNaN(meanSegmentLength)) {
+            double sum = 0;
+            int count = 0;
+            for (int s = 0; s < nodes.length - 1; s++) {
+                double de = east[s + 1] - east[s];
+                double dn = north[s + 1] - north[s];
+                if (!Double.isNaN(de) && !Double.isNaN(dn)) {
+                    sum += Math.sqrt(de * de + dn * dn);
+                    count++;
+                }
+            }
+            meanSegmentLength = count > 0 ? sum / count : Double.NaN;
+        }
+        return meanSegmentLength;
+    }
+
+    /**
+     * Returns the segment index of the way.
+     * @return the segment index
+     */
+    WaySegmentIndex getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * Returns the search of the nearest visible node of the way.
+     * @return the search
+     */
+    NearestNodeSearch getNodeSearch() {
+        return nodeSearch;
+    }
+
+    /**
+     * Returns the equal angle points of the nodes and segments of the way.
+     * @return the equal angle points
+     */
+    EqualAngleTable getEqualAngles() {
+        return equalAngles;
+    }
+
+    /**
+     * Returns the segment lengths, headings and turns of the way.
+     * @return the measures
+     */
+    WayMeasures getMeasures() {
+        return measures;
+    }
+}
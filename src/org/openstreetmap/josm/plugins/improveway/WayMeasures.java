@@ -0,0 +1,261 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+
+/**
+ * Segment lengths, headings and node turn angles of the target way, as shown
+ * by the helpers. Headings and turns are in degrees between -180 and 180,
+ * lengths in meters. Values that cannot be computed are {@code NaN}.
+ *
+ * Turns of the first and last node of closed ways are measured between the
+ * last and the first segment. They are {@code NaN} for open ways.
+ *
+ * Distances along the way are kept in a Fenwick tree of the segment
+ * lengths, so they can be read and searched in O(log n) while nodes move.
+ */
+final class WayMeasures {
+
+    private final WayGeometry geometry;
+    private double[] length;
+    private double[] heading;
+    private double[] turn;
+    // Fenwick tree of the segment lengths, unknown lengths count as 0
+    private double[] lengthTree;
+
+    /**
+     * Computes the measures of the whole way.
+     *
+     * @param geometry the geometry of the way
+     */
+    WayMeasures(WayGeometry geometry) {
+        this.geometry = geometry;
+        int count = geometry.getNodesCount();
+        length = new double[Math.max(0, count - 1)];
+        heading = new double[Math.max(0, count - 1)];
+        turn = new double[count];
+        for (int s = 0; s < length.length; s++) {
+            updateSegment(s);
+        }
+        for (int i = 0; i < count; i++) {
+            updateTurn(i);
+        }
+        buildLengthTree();
+    }
+
+    private void updateSegment(int s) {
+        double oldLength = length[s];
+        LatLon a = geometry.getCoor(s);
+        LatLon b = geometry.getCoor(s + 1);
+        if (a == null || b == null) {
+            length[s] = Double.NaN;
+            heading[s] = Double.NaN;
+        } else {
+            length[s] = a.greatCircleDistance(b);
+            heading[s] = heading(a, b);
+        }
+        if (lengthTree != null) {
+            double delta = known(length[s]) - known(oldLength);
+            for (int k = s + 1; k < lengthTree.length; k += k & -k) {
+                lengthTree[k] += delta;
+            }
+        }
+    }
+
+    private static double known(double length) {
+        return Double.isNaN(length) ? 0 : length;
+    }
+
+    private void buildLengthTree() {
+        lengthTree = new double[length.length + 1];
+        for (int k = 1; k < lengthTree.length; k++) {
+            lengthTree[k] += known(length[k - 1]);
+            int parent = k + (k & -k);
+            if (parent < lengthTree.length) {
+                lengthTree[parent] += lengthTree[k];
+            }
+        }
+    }
+
+    private void updateTurn(int i) {
+        int count = turn.length;
+        int previous = i - 1;
+        int next = i;
+        if (geometry.isClosed()) {
+            if (i == 0) previous = count - 2;
+            if (i == count - 1) next = 0;
+        }
+        if (previous < 0 || next >= count - 1) {
+            turn[i] = Double.NaN;
+        } else {
+            turn[i] = fixHeading(heading[next] - heading[previous]);
+        }
+    }
+
+    /**
+     * Updates the measures around a node after its coordinates changed.
+     *
+     * @param i index of the moved node
+     */
+    void nodeMoved(int i) {
+        if (i > 0) updateSegment(i - 1);
+        if (i < length.length) updateSegment(i);
+        for (int k = Math.max(0, i - 1); k <= Math.min(turn.length - 1, i + 1); k++) {
+            updateTurn(k);
+        }
+        if (geometry.isClosed()) {
+            updateTurn(0);
+            updateTurn(turn.length - 1);
+        }
+    }
+
+    /**
+     * Updates the measures after the nodes between {@code prefix} and
+     * {@code suffix} were replaced. Measures of unchanged segments are kept.
+     *
+     * @param prefix number of unchanged nodes at the start of the way
+     * @param oldCount number of nodes before the change
+     * @param suffix number of unchanged nodes at the end of the way
+     */
+    void nodesReplaced(int prefix, int oldCount, int suffix) {
+        int count = geometry.getNodesCount();
+        int shift = count - oldCount;
+        double[] oldLength = length;
+        double[] oldHeading = heading;
+        double[] oldTurn = turn;
+        lengthTree = null;
+        length = new double[Math.max(0, count - 1)];
+        heading = new double[Math.max(0, count - 1)];
+        turn = new double[count];
+
+        // segments with both nodes unchanged
+        int head = Math.max(0, Math.min(prefix - 1, length.length));
+        int tail = Math.max(head, count - suffix);
+        System.arraycopy(oldLength, 0, length, 0, head);
+        System.arraycopy(oldHeading, 0, heading, 0, head);
+        for (int s = tail; s < length.length; s++) {
+            length[s] = oldLength[s - shift];
+            heading[s] = oldHeading[s - shift];
+        }
+        for (int s = head; s < Math.min(tail, length.length); s++) {
+            updateSegment(s);
+        }
+
+        // turns with both segments unchanged
+        for (int i = 0; i < count; i++) {
+            if (i < head) {
+                turn[i] = oldTurn[i];
+            } else if (i > tail && i - shift < oldTurn.length) {
+                turn[i] = oldTurn[i - shift];
+            } else {
+                updateTurn(i);
+            }
+        }
+        if (count > 0) {
+            updateTurn(0);
+            updateTurn(count - 1);
+        }
+        buildLengthTree();
+    }
+
+    /**
+     * Returns the length of a segment.
+     * @param s segment index
+     * @return length in meters
+     */
+    double getLength(int s) {
+        return length[s];
+    }
+
+    /**
+     * Returns the distance along the way from the first node to a node.
+     * Segments of unknown length are not counted.
+     *
+     * @param i node index
+     * @return distance in meters
+     */
+    double getDistance(int i) {
+        // summed from the largest tree node down, in the order findNode adds them,
+        // so the distance of a node is found at exactly that node
+        double sum = 0;
+        int k = 0;
+        for (int step = Integer.highestOneBit(i); step > 0; step >>= 1) {
+            if ((i & step) != 0) {
+                k += step;
+                sum += lengthTree[k];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the last node not farther along the way than a distance.
+     *
+     * @param distance distance from the first node in meters
+     * @param inclusive include a node exactly at the distance
+     * @return index of the last node whose distance is at most, or below if
+     * not inclusive, the given one; -1 if there is none
+     */
+    int findNode(double distance, boolean inclusive) {
+        if (distance < 0 || (!inclusive && distance == 0)) {
+            return -1;
+        }
+        // descend the tree to the largest prefix of segments within the distance
+        int i = 0;
+        double sum = 0;
+        for (int step = Integer.highestOneBit(Math.max(1, lengthTree.length - 1)); step > 0; step >>= 1) {
+            int k = i + step;
+            if (k < lengthTree.length) {
+                double next = sum + lengthTree[k];
+                if (inclusive ? next <= distance : next < distance) {
+                    i = k;
+                    sum = next;
+                }
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Returns the heading of a segment.
+     * @param s segment index
+     * @return heading in degrees
+     */
+    double getHeading(int s) {
+        return heading[s];
+    }
+
+    /**
+     * Returns the signed turn angle at a node.
+     * @param i node index
+     * @return turn in degrees
+     */
+    double getTurn(int i) {
+        return turn[i];
+    }
+
+    /**
+     * Returns the heading from one coordinate to another as used by the
+     * helpers: 0 points east and angles grow clockwise.
+     *
+     * @param from start coordinate
+     * @param to end coordinate
+     * @return heading in degrees
+     */
+    static double heading(LatLon from, LatLon to) {
+        return fixHeading(-90 + from.bearing(to) * 180 / Math.PI);
+    }
+
+    /**
+     * Normalizes a heading or turn angle into the range -180..180.
+     *
+     * @param heading angle in degrees
+     * @return normalized angle in degrees
+     */
+    static double fixHeading(double heading) {
+        double fixed = heading;
+        while (fixed < -180) fixed += 360;
+        while (fixed > 180) fixed -= 360;
+        return fixed;
+    }
+}
@@ -0,0 +1,69 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Nodes and coordinates of a way or of a range of its nodes, read on the
+ * thread owning the dataset and handed to the {@link OverlayWorker}, which
+ * never reads the dataset itself. Unknown coordinates are stored as
+ * {@code NaN}. The arrays must not be changed after reading.
+ */
+final class WayNodes {
+
+    final Way way;
+    final Node[] nodes;
+    final double[] east;
+    final double[] north;
+    final double[] lat;
+    final double[] lon;
+    /** The whole way is closed */
+    final boolean closed;
+
+    private WayNodes(Way way, int from, int to) {
+        this.way = way;
+        nodes = new Node[to - from];
+        east = new double[nodes.length];
+        north = new double[nodes.length];
+        lat = new double[nodes.length];
+        lon = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = way.getNode(from + i);
+            EastNorth en = nodes[i].getEastNorth();
+            east[i] = en != null ? en.east() : Double.NaN;
+            north[i] = en != null ? en.north() : Double.NaN;
+            LatLon coor = nodes[i].getCoor();
+            lat[i] = coor != null ? coor.lat() : Double.NaN;
+            lon[i] = coor != null ? coor.lon() : Double.NaN;
+        }
+        closed = way.isClosed();
+    }
+
+    /**
+     * Reads the current nodes and coordinates of a way. Must be called on the
+     * event dispatch thread or with the read lock of the dataset held.
+     *
+     * @param way the way
+     * @return the nodes and coordinates
+     */
+    static WayNodes read(Way way) {
+        return new WayNodes(way, 0, way.getNodesCount());
+    }
+
+    /**
+     * Reads a range of the current nodes and coordinates of a way. Must be
+     * called on the event dispatch thread or with the read lock of the
+     * dataset held.
+     *
+     * @param way the way
+     * @param from index of the first node to read
+     * @param to index after the last node to read
+     * @return the nodes and coordinates
+     */
+    static WayNodes read(Way way, int from, int to) {
+        return new WayNodes(way, from, to);
+    }
+}
@@ -0,0 +1,92 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Nodes added to or removed from a way since its nodes were read before:
+ * the unchanged nodes at both ends of the node list and the nodes and
+ * coordinates replacing those in between. Only the replacing nodes are read
+ * from the way.
+ */
+final class WayNodesChange {
+
+    /** Number of unchanged nodes at the start */
+    final int prefix;
+    /** Number of unchanged nodes at the end */
+    final int suffix;
+    /** Number of nodes before the change */
+    final int oldCount;
+    /** Number of nodes after the change */
+    final int count;
+    /** Nodes and coordinates replacing the changed ones */
+    final WayNodes replacement;
+
+    private WayNodesChange(Way way, Node[] oldNodes) {
+        oldCount = oldNodes.length;
+        count = way.getNodesCount();
+        int start = 0;
+        while (start < oldCount && start < count && oldNodes[start] == way.getNode(start)) {
+            start++;
+        }
+        int end = 0;
+        while (end < oldCount - start && end < count - start
+                && oldNodes[oldCount - 1 - end] == way.getNode(count - 1 - end)) {
+            end++;
+        }
+        prefix = start;
+        suffix = end;
+        replacement = WayNodes.read(way, prefix, count - suffix);
+    }
+
+    /**
+     * Compares the current nodes of a way with those read before. Must be
+     * called on the event dispatch thread or with the read lock of the
+     * dataset held.
+     *
+     * @param way the way
+     * @param oldNodes the nodes read before
+     * @return the change
+     */
+    static WayNodesChange read(Way way, Node[] oldNodes) {
+        return new WayNodesChange(way, oldNodes);
+    }
+
+    /**
+     * Determines if the nodes are the same as before.
+     * @return {@code true} if no node was added or removed
+     */
+    boolean isEmpty() {
+        return prefix == oldCount && prefix == count;
+    }
+
+    /**
+     * Applies the change to the nodes read before.
+     *
+     * @param oldNodes the nodes read before
+     * @return the current nodes
+     */
+    Node[] apply(Node[] oldNodes) {
+        Node[] result = new Node[count];
+        System.arraycopy(oldNodes, 0, result, 0, prefix);
+        System.arraycopy(replacement.nodes, 0, result, prefix, replacement.nodes.length);
+        System.arraycopy(oldNodes, oldCount - suffix, result, count - suffix, suffix);
+        return result;
+    }
+
+    /**
+     * Applies the change to coordinates read before.
+     *
+     * @param oldValues the coordinates of the nodes read before
+     * @param newValues the same coordinates of the replacing nodes
+     * @return the coordinates of the current nodes
+     */
+    double[] apply(double[] oldValues, double[] newValues) {
+        double[] result = new double[count];
+        System.arraycopy(oldValues, 0, result, 0, prefix);
+        System.arraycopy(newValues, 0, result, prefix, newValues.length);
+        System.arraycopy(oldValues, oldCount - suffix, result, count - suffix, suffix);
+        return result;
+    }
+}
@@ -0,0 +1,274 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Uniform grid over the segments of a way in east/north space. Segment
+ * {@code i} connects node {@code i} and node {@code i + 1} of the way. It is
+ * used to find the segments near a rectangle without checking all of them.
+ *
+ * Segments moving outside of the original bounds are kept in the border
+ * cells, so the index stays correct, only less selective.
+ */
+final class WaySegmentIndex {
+
+    private static final int MAX_CELLS_PER_AXIS = 1024;
+
+    private final WayGeometry geometry;
+
+    private double minEast;
+    private double minNorth;
+    private double cellSize;
+    private int columns;
+    private int rows;
+    private int[][] cells;
+    private int[] cellSizes;
+
+    /**
+     * Builds the index for the current geometry of the way.
+     *
+     * @param geometry the geometry of the way to index
+     */
+    WaySegmentIndex(WayGeometry geometry) {
+        this.geometry = geometry;
+        double maxEast = Double.NEGATIVE_INFINITY;
+        double maxNorth = Double.NEGATIVE_INFINITY;
+        minEast = Double.POSITIVE_INFINITY;
+        minNorth = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < geometry.getNodesCount(); i++) {
+            if (Double.isNaN(geometry.east(i))) continue;
+            minEast = Math.min(minEast, geometry.east(i));
+            minNorth = Math.min(minNorth, geometry.north(i));
+            maxEast = Math.max(maxEast, geometry.east(i));
+            maxNorth = Math.max(maxNorth, geometry.north(i));
+        }
+        if (minEast > maxEast) {
+            // no known coordinates at all
+            minEast = 0;
+            minNorth = 0;
+            maxEast = 0;
+            maxNorth = 0;
+        }
+
+        // roughly one cell per segment
+        double extent = Math.max(maxEast - minEast, maxNorth - minNorth);
+        int perAxis = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) Math.ceil(Math.sqrt(getSegmentCount()))));
+        cellSize = extent > 0 ? extent / perAxis : 1;
+        columns = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) ((maxEast - minEast) / cellSize) + 1));
+        rows = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) ((maxNorth - minNorth) / cellSize) + 1));
+        cells = new int[columns * rows][];
+        cellSizes = new int[columns * rows];
+
+        for (int s = 0; s < getSegmentCount(); s++) {
+            addSegment(s);
+        }
+    }
+
+    /**
+     * Adds a segment to the cells covered by its current bounding box.
+     * @param s segment index
+     */
+    void addSegment(int s) {
+        if (Double.isNaN(geometry.east(s)) || Double.isNaN(geometry.east(s + 1))) return;
+        int c1 = column(Math.min(geometry.east(s), geometry.east(s + 1)));
+        int c2 = column(Math.max(geometry.east(s), geometry.east(s + 1)));
+        int r1 = row(Math.min(geometry.north(s), geometry.north(s + 1)));
+        int r2 = row(Math.max(geometry.north(s), geometry.north(s + 1)));
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                add(r * columns + c, s);
+            }
+        }
+    }
+
+    /**
+     * Removes a segment from the cells covered by its current bounding box.
+     * Must be called before the coordinates of its nodes change.
+     * @param s segment index
+     */
+    void removeSegment(int s) {
+        if (Double.isNaN(geometry.east(s)) || Double.isNaN(geometry.east(s + 1))) return;
+        int c1 = column(Math.min(geometry.east(s), geometry.east(s + 1)));
+        int c2 = column(Math.max(geometry.east(s), geometry.east(s + 1)));
+        int r1 = row(Math.min(geometry.north(s), geometry.north(s + 1)));
+        int r2 = row(Math.max(geometry.north(s), geometry.north(s + 1)));
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                remove(r * columns + c, s);
+            }
+        }
+    }
+
+    /**
+     * Renumbers segments after nodes were added or removed before them. Must
+     * be called after their coordinates moved to the new node indexes.
+     *
+     * @param from first new segment index
+     * @param to new segment index after the last one
+     * @param shift difference between the new and the old indexes
+     */
+    void renumberSegments(int from, int to, int shift) {
+        if (shift == 0) {
+            return;
+        }
+        // segments are renumbered away from the old indexes not renumbered yet
+        int first = shift > 0 ? to - 1 : from;
+        int step = shift > 0 ? -1 : 1;
+        for (int s = first; s >= from && s < to; s += step) {
+            if (Double.isNaN(geometry.east(s)) || Double.isNaN(geometry.east(s + 1))) continue;
+            int c1 = column(Math.min(geometry.east(s), geometry.east(s + 1)));
+            int c2 = column(Math.max(geometry.east(s), geometry.east(s + 1)));
+            int r1 = row(Math.min(geometry.north(s), geometry.north(s + 1)));
+            int r2 = row(Math.max(geometry.north(s), geometry.north(s + 1)));
+            for (int r = r1; r <= r2; r++) {
+                for (int c = c1; c <= c2; c++) {
+                    replace(r * columns + c, s - shift, s);
+                }
+            }
+        }
+    }
+
+    private void add(int cell, int segment) {
+        int[] list = cells[cell];
+        if (list == null) {
+            list = new int[4];
+            cells[cell] = list;
+        } else if (cellSizes[cell] == list.length) {
+            int[] grown = new int[list.length * 2];
+            System.arraycopy(list, 0, grown, 0, list.length);
+            list = grown;
+            cells[cell] = list;
+        }
+        list[cellSizes[cell]++] = segment;
+    }
+
+    private void remove(int cell, int segment) {
+        int[] list = cells[cell];
+        for (int k = 0; k < cellSizes[cell]; k++) {
+            if (list[k] == segment) {
+                list[k] = list[--cellSizes[cell]];
+                return;
+            }
+        }
+    }
+
+    private void replace(int cell, int oldSegment, int newSegment) {
+        int[] list = cells[cell];
+        for (int k = 0; k < cellSizes[cell]; k++) {
+            if (list[k] == oldSegment) {
+                list[k] = newSegment;
+                return;
+            }
+        }
+    }
+
+    private int column(double e) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((e - minEast) / cellSize)));
+    }
+
+    private int row(double n) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((n - minNorth) / cellSize)));
+    }
+
+    private int getSegmentCount() {
+        return Math.max(0, geometry.getNodesCount() - 1);
+    }
+
+    /**
+     * Tests segments whose bounding box intersects the given rectangle until
+     * the predicate matches. Each segment is tested at most once.
+     *
+     * @param e1 east coordinate of one corner
+     * @param n1 north coordinate of one corner
+     * @param e2 east coordinate of the opposite corner
+     * @param n2 north coordinate of the opposite corner
+     * @param predicate test for segment indexes
+     * @return {@code true} if the predicate matched any segment
+     */
+    boolean anySegmentInBox(double e1, double n1, double e2, double n2, IntPredicate predicate) {
+        double qMinEast = Math.min(e1, e2);
+        double qMaxEast = Math.max(e1, e2);
+        double qMinNorth = Math.min(n1, n2);
+        double qMaxNorth = Math.max(n1, n2);
+        int c1 = column(qMinEast);
+        int c2 = column(qMaxEast);
+        int r1 = row(qMinNorth);
+        int r2 = row(qMaxNorth);
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                int cell = r * columns + c;
+                int[] list = cells[cell];
+                for (int k = 0; k < cellSizes[cell]; k++) {
+                    int s = list[k];
+                    double sMinEast = Math.min(geometry.east(s), geometry.east(s + 1));
+                    double sMaxEast = Math.max(geometry.east(s), geometry.east(s + 1));
+                    double sMinNorth = Math.min(geometry.north(s), geometry.north(s + 1));
+                    double sMaxNorth = Math.max(geometry.north(s), geometry.north(s + 1));
+                    if (sMaxEast < qMinEast || sMinEast > qMaxEast
+                            || sMaxNorth < qMinNorth || sMinNorth > qMaxNorth) {
+                        continue;
+                    }
+                    // A segment is stored in every cell its bounding box covers.
+                    // Report it only from the cell holding the lower left corner
+                    // of the overlap, so it is not tested twice.
+                    if (column(Math.max(sMinEast, qMinEast)) != c
+                            || row(Math.max(sMinNorth, qMinNorth)) != r) {
+                        continue;
+                    }
+                    if (predicate.test(s)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visits the segments in rings of cells around a point, starting with the
+     * cell of the point, until the cells of the next ring are farther from the
+     * point than the distance returned by the visitor. Segments covering
+     * several cells are visited once per cell.
+     *
+     * @param e east coordinate of the point
+     * @param n north coordinate of the point
+     * @param visitor receives segment indexes and returns the distance up to
+     * which the search goes on
+     */
+    void visitNear(double e, double n, IntToDoubleFunction visitor) {
+        int c0 = column(e);
+        int r0 = row(n);
+        double radius = Double.POSITIVE_INFINITY;
+        int rings = Math.max(Math.max(c0, columns - 1 - c0), Math.max(r0, rows - 1 - r0));
+        // cells of ring k are at least k - 1 cells away from the point,
+        // also if the point is outside of the grid
+        for (int k = 0; k <= rings && (k - 1) * cellSize <= radius; k++) {
+            for (int r = Math.max(0, r0 - k); r <= Math.min(rows - 1, r0 + k); r++) {
+                if (r == r0 - k || r == r0 + k) {
+                    for (int c = Math.max(0, c0 - k); c <= Math.min(columns - 1, c0 + k); c++) {
+                        radius = visitCell(r * columns + c, visitor, radius);
+                    }
+                } else {
+                    // inner rows of the ring only have their first and last cell
+                    if (c0 - k >= 0) {
+                        radius = visitCell(r * columns + c0 - k, visitor, radius);
+                    }
+                    if (c0 + k < columns) {
+                        radius = visitCell(r * columns + c0 + k, visitor, radius);
+                    }
+                }
+            }
+        }
+    }
+
+    private double visitCell(int cell, IntToDoubleFunction visitor, double radius) {
+        double result = radius;
+        int[] list = cells[cell];
+        for (int k = 0; k < cellSizes[cell]; k++) {
+            result = visitor.applyAsDouble(list[k]);
+        }
+        return result;
+    }
+}
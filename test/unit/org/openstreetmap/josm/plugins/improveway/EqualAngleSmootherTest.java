@@ -0,0 +1,111 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.testutils.JOSMTestRules;
+
+/**
+ * Unit tests of {@link EqualAngleSmoother}.
+ */
+class EqualAngleSmootherTest {
+
+    /**
+     * Setup test.
+     */
+    @RegisterExtension
+    static JOSMTestRules test = new JOSMTestRules().projection();
+
+    /**
+     * A right-angle corner between two zigzag legs is kept, while the legs
+     * are smoothed.
+     */
+    @Test
+    void testRightAngleCornerKept() {
+        DataSet ds = new DataSet();
+        List<Node> nodes = new ArrayList<>();
+        // east along north = 0, then north along east = 100, zigzagging by 1 m
+        for (int i = 0; i <= 10; i++) {
+            nodes.add(new Node(new EastNorth(10 * i, i % 2)));
+        }
+        for (int i = 1; i <= 10; i++) {
+            nodes.add(new Node(new EastNorth(100 + i % 2, 10 * i)));
+        }
+        nodes.forEach(ds::addPrimitive);
+        Way way = new Way();
+        way.setNodes(nodes);
+        ds.addPrimitive(way);
+
+        EqualAngleSmoother smoother = new EqualAngleSmoother(way);
+        smoother.solve();
+        Set<OsmPrimitive> moved = new HashSet<>();
+        for (Command move : smoother.createMoves()) {
+            moved.addAll(move.getParticipatingPrimitives());
+        }
+
+        assertTrue(moved.contains(nodes.get(5)), "zigzag is smoothed");
+        assertTrue(moved.contains(nodes.get(15)), "zigzag is smoothed");
+        // the corner and its neighbours define the angle of the corner
+        assertFalse(moved.contains(nodes.get(9)));
+        assertFalse(moved.contains(nodes.get(10)));
+        assertFalse(moved.contains(nodes.get(11)));
+        assertEquals(1, smoother.countSharpTurns());
+    }
+
+    /**
+     * A node the way passes twice is not moved, its two positions in the way
+     * would give it two moves.
+     */
+    @Test
+    void testRepeatedNodeKept() {
+        DataSet ds = new DataSet();
+        List<Node> nodes = new ArrayList<>();
+        // east along north = 0, zigzagging by 1 m
+        for (int i = 0; i <= 10; i++) {
+            nodes.add(new Node(new EastNorth(10 * i, i % 2)));
+        }
+        // a wide loop to the left, back through the sixth node and on
+        double radius = 1250.5;
+        double start = -Math.PI / 2;
+        double end = Math.atan2(1 - radius, 50 - 100) + 2 * Math.PI;
+        int steps = 800;
+        for (int k = 1; k <= steps + 2; k++) {
+            if (k == steps) {
+                nodes.add(nodes.get(5));
+            } else {
+                double angle = start + (end - start) * k / steps;
+                nodes.add(new Node(new EastNorth(100 + radius * Math.cos(angle), radius + radius * Math.sin(angle))));
+            }
+        }
+        new HashSet<>(nodes).forEach(ds::addPrimitive);
+        Way way = new Way();
+        way.setNodes(nodes);
+        ds.addPrimitive(way);
+
+        EqualAngleSmoother smoother = new EqualAngleSmoother(way);
+        smoother.solve();
+        List<OsmPrimitive> moved = new ArrayList<>();
+        for (Command move : smoother.createMoves()) {
+            moved.addAll(move.getParticipatingPrimitives());
+        }
+
+        assertTrue(moved.contains(nodes.get(4)), "zigzag is smoothed");
+        assertFalse(moved.contains(nodes.get(5)));
+        assertEquals(new HashSet<>(moved).size(), moved.size(), "each node is moved once");
+    }
+}
@@ -0,0 +1,93 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Edits a way at random and patches a {@link WayGeometry} with each edit,
+ * the way the overlay worker does, to compare it with a geometry read again.
+ */
+final class RandomWayEditor {
+
+    private final Random random;
+
+    /**
+     * Constructs a new {@code RandomWayEditor}.
+     *
+     * @param seed seed of the random edits
+     */
+    RandomWayEditor(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Creates a way of random nodes.
+     *
+     * @param count number of distinct nodes
+     * @param closed {@code true} to close the way
+     * @return the way
+     */
+    Way createWay(int count, boolean closed) {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(new Node(randomEastNorth()));
+        }
+        if (closed) {
+            nodes.add(nodes.get(0));
+        }
+        Way way = new Way();
+        way.setNodes(nodes);
+        return way;
+    }
+
+    private EastNorth randomEastNorth() {
+        // a few hundred meters around a point in central Europe
+        return new EastNorth(2_000_000 + random.nextDouble() * 500, 6_000_000 + random.nextDouble() * 500);
+    }
+
+    /**
+     * Moves a node, inserts or deletes nodes or replaces a range of nodes,
+     * and patches the geometry of the way.
+     *
+     * @param way the way
+     * @param geometry the geometry of the way
+     */
+    void edit(Way way, WayGeometry geometry) {
+        List<Node> nodes = way.getNodes();
+        Node[] oldNodes = nodes.toArray(new Node[0]);
+        boolean closed = way.isClosed();
+        // the first and last node of closed ways stay, so the way stays closed
+        int first = closed ? 1 : 0;
+        int end = closed ? nodes.size() - 1 : nodes.size();
+        int realCount = closed ? nodes.size() - 1 : nodes.size();
+        int operation = random.nextInt(4);
+        if (operation == 0) {
+            Node node = nodes.get(random.nextInt(realCount));
+            node.setEastNorth(randomEastNorth());
+            geometry.nodeMoved(node, node.getEastNorth(), node.getCoor());
+            return;
+        }
+        if (operation == 1 || realCount <= 4) {
+            nodes.add(first + random.nextInt(end - first + 1), new Node(randomEastNorth()));
+        } else if (operation == 2) {
+            nodes.remove(first + random.nextInt(end - first));
+        } else {
+            int from = first + random.nextInt(end - first);
+            int to = Math.min(end, from + random.nextInt(4));
+            List<Node> replacement = new ArrayList<>();
+            for (int k = random.nextInt(4); k > 0; k--) {
+                replacement.add(new Node(randomEastNorth()));
+            }
+            nodes.subList(from, to).clear();
+            nodes.addAll(from, replacement);
+        }
+        way.setNodes(nodes);
+        geometry.wayNodesChanged(WayNodesChange.read(way, oldNodes));
+    }
+}
@@ -0,0 +1,249 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.improveway;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.testutils.JOSMTestRules;
+
+/**
+ * Unit tests of {@link WayGeometry} and of the {@link WayMeasures},
+ * {@link EqualAngleTable} and {@link NearestNodeSearch} kept with it.
+ */
+class WayGeometryTest {
+
+    /**
+     * Setup test.
+     */
+    @RegisterExtension
+    static JOSMTestRules test = new JOSMTestRules().projection();
+
+    /**
+     * Patching a way with moves, insertions and deletions gives the same
+     * geometry, measures, equal-angle points, segment index and searches as
+     * reading the way again. Closed ways are also patched next to the
+     * closing node.
+     *
+     * @param closed {@code true} to edit a closed way
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testPatched(boolean closed) {
+        RandomWayEditor editor = new RandomWayEditor(closed ? 2 : 1);
+        Random random = new Random(closed ? 4 : 3);
+        Way way = editor.createWay(20, closed);
+        WayGeometry geometry = new WayGeometry(WayNodes.read(way));
+        for (int edit = 0; edit < 500; edit++) {
+            editor.edit(way, geometry);
+            WayGeometry expected = new WayGeometry(WayNodes.read(way));
+            String message = "edit " + edit;
+            assertSameGeometry(expected, geometry, message);
+            assertSameEqualAngles(expected, geometry, message);
+            assertSameDistances(expected, geometry, random, message);
+            for (int query = 0; query < 10; query++) {
+                // around the area of the random nodes
+                double e = 2_000_000 - 300 + random.nextDouble() * 1100;
+                double n = 6_000_000 - 300 + random.nextDouble() * 1100;
+                assertSame(findNearestNode(expected, e, n), geometry.getNodeSearch().find(e, n),
+                        message + ", point " + e + " " + n);
+            }
+        }
+    }
+
+    /**
+     * Nodes are found at distance 0, at exactly their distances along the
+     * way and beyond its ends.
+     */
+    @Test
+    void testFindNodeBoundaries() {
+        WayMeasures measures = createMeasures(node(0), node(100), node(250), node(450));
+        assertEquals(-1, measures.findNode(-1, true));
+        assertEquals(0, measures.findNode(0, true));
+        assertEquals(-1, measures.findNode(0, false));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, measures.findNode(measures.getDistance(i), true), "node " + i);
+            assertEquals(i - 1, measures.findNode(measures.getDistance(i), false), "node " + i);
+        }
+        assertEquals(3, measures.findNode(measures.getDistance(3) + 1, true));
+        assertEquals(3, measures.findNode(measures.getDistance(3) + 1, false));
+
+        WayMeasures single = createMeasures(node(0));
+        assertEquals(0, single.findNode(0, true));
+        assertEquals(-1, single.findNode(0, false));
+        assertEquals(0, single.findNode(1, false));
+    }
+
+    /**
+     * Segments of unknown length count as 0, all nodes at the same distance
+     * are found inclusively and none of them exclusively.
+     */
+    @Test
+    void testFindNodeUnknownLengths() {
+        WayMeasures measures = createMeasures(node(0), node(100), new Node(), node(300), node(400));
+        assertTrue(Double.isNaN(measures.getLength(1)));
+        assertTrue(Double.isNaN(measures.getLength(2)));
+        double distance = measures.getDistance(1);
+        assertEquals(distance, measures.getDistance(2), 0);
+        assertEquals(distance, measures.getDistance(3), 0);
+        assertEquals(3, measures.findNode(distance, true));
+        assertEquals(0, measures.findNode(distance, false));
+        assertEquals(4, measures.findNode(measures.getDistance(4), true));
+
+        WayMeasures unknownStart = createMeasures(new Node(), node(100), node(200));
+        assertEquals(0, unknownStart.getDistance(1), 0);
+        assertEquals(1, unknownStart.findNode(0, true));
+        assertEquals(-1, unknownStart.findNode(0, false));
+    }
+
+    private static Node node(double east) {
+        return new Node(new EastNorth(2_000_000 + east, 6_000_000));
+    }
+
+    private static WayMeasures createMeasures(Node... nodes) {
+        Way way = new Way();
+        way.setNodes(Arrays.asList(nodes));
+        return new WayGeometry(WayNodes.read(way)).getMeasures();
+    }
+
+    private static void assertSameGeometry(WayGeometry expected, WayGeometry actual, String message) {
+        assertEquals(expected.getNodesCount(), actual.getNodesCount(), message);
+        assertEquals(expected.isClosed(), actual.isClosed(), message);
+        WayMeasures expectedMeasures = expected.getMeasures();
+        WayMeasures actualMeasures = actual.getMeasures();
+        for (int i = 0; i < expected.getNodesCount(); i++) {
+            String node = message + ", node " + i;
+            assertSame(expected.getNode(i), actual.getNode(i), node);
+            assertEquals(expected.indexOf(expected.getNode(i)), actual.indexOf(actual.getNode(i)), node);
+            assertEquals(expected.east(i), actual.east(i), 0, node);
+            assertEquals(expected.north(i), actual.north(i), 0, node);
+            assertEquals(expected.getCoor(i), actual.getCoor(i), node);
+            assertEquals(expectedMeasures.getTurn(i), actualMeasures.getTurn(i), 1e-9, node);
+        }
+        for (int s = 0; s < expected.getNodesCount() - 1; s++) {
+            String segment = message + ", segment " + s;
+            assertEquals(expectedMeasures.getLength(s), actualMeasures.getLength(s), 1e-9, segment);
+            assertEquals(expectedMeasures.getHeading(s), actualMeasures.getHeading(s), 1e-9, segment);
+        }
+        assertEquals(expected.getMeanSegmentLength(), actual.getMeanSegmentLength(), 1e-9, message);
+        assertEquals(findSegments(expected), findSegments(actual), message);
+    }
+
+    /**
+     * Returns the segments found by the segment index in the bounds of the
+     * way, each as often as it is found.
+     */
+    private static List<Integer> findSegments(WayGeometry geometry) {
+        List<Integer> segments = new ArrayList<>();
+        geometry.getSegmentIndex().anySegmentInBox(
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                s -> {
+                    segments.add(s);
+                    return false;
+                });
+        segments.sort(null);
+        return segments;
+    }
+
+    private static void assertSameEqualAngles(WayGeometry expected, WayGeometry actual, String message) {
+        EqualAngleTable expectedPoints = expected.getEqualAngles();
+        EqualAngleTable actualPoints = actual.getEqualAngles();
+        for (int i = 0; i < expected.getNodesCount(); i++) {
+            assertSamePoint(expectedPoints.getNodePoint(i), actualPoints.getNodePoint(i), message + ", node " + i);
+        }
+        for (int s = 0; s < expected.getNodesCount() - 1; s++) {
+            assertSamePoint(expectedPoints.getSegmentPoint(s), actualPoints.getSegmentPoint(s),
+                    message + ", segment " + s);
+        }
+    }
+
+    private static void assertSamePoint(EastNorth expected, EastNorth actual, String message) {
+        if (expected == null) {
+            assertNull(actual, message);
+        } else {
+            assertNotNull(actual, message);
+            assertEquals(expected.east(), actual.east(), 1e-9, message);
+            assertEquals(expected.north(), actual.north(), 1e-9, message);
+        }
+    }
+
+    /**
+     * Compares the distances along the way with the sums of the segment
+     * lengths, and {@link WayMeasures#findNode} with a linear search of them.
+     * Random distances closer to a node than the rounding errors of the sums
+     * are skipped, the distances of the nodes themselves must be found exactly.
+     */
+    private static void assertSameDistances(WayGeometry expected, WayGeometry actual, Random random, String message) {
+        WayMeasures measures = actual.getMeasures();
+        int count = actual.getNodesCount();
+        double[] sums = new double[count];
+        for (int i = 1; i < count; i++) {
+            sums[i] = sums[i - 1] + measures.getLength(i - 1);
+        }
+        for (int i = 0; i < count; i++) {
+            String node = message + ", node " + i;
+            assertEquals(sums[i], measures.getDistance(i), 1e-6, node);
+            assertEquals(expected.getMeasures().getDistance(i), measures.getDistance(i), 1e-6, node);
+            // the random nodes are distinct, no segment has length 0
+            assertEquals(i, measures.findNode(measures.getDistance(i), true), node);
+            assertEquals(i - 1, measures.findNode(measures.getDistance(i), false), node);
+        }
+        for (int query = 0; query < 10; query++) {
+            double distance = random.nextDouble() * (sums[count - 1] + 20) - 10;
+            if (Arrays.stream(sums).noneMatch(sum -> Math.abs(sum - distance) < 1e-6)) {
+                int last = -1;
+                while (last + 1 < count && sums[last + 1] < distance) {
+                    last++;
+                }
+                String find = message + ", distance " + distance;
+                assertEquals(last, measures.findNode(distance, true), find);
+                assertEquals(last, measures.findNode(distance, false), find);
+            }
+        }
+    }
+
+    /**
+     * Finds the nearest node not behind a segment by testing all nodes and
+     * segments.
+     */
+    private static Node findNearestNode(WayGeometry geometry, double pe, double pn) {
+        double bestDistance = Double.MAX_VALUE;
+        Node result = null;
+        for (int i = 0; i < geometry.getNodesCount(); i++) {
+            Node node = geometry.getNode(i);
+            double ne = geometry.east(i);
+            double nn = geometry.north(i);
+            double distance = Math.hypot(ne - pe, nn - pn);
+            if (distance < bestDistance && !isBehindSegment(geometry, node, pe, pn, ne, nn)) {
+                bestDistance = distance;
+                result = node;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isBehindSegment(WayGeometry geometry, Node node, double pe, double pn, double ne, double nn) {
+        for (int s = 0; s < geometry.getNodesCount() - 1; s++) {
+            if (geometry.getNode(s) != node && geometry.getNode(s + 1) != node
+                    && GeometryKernel.segmentSegmentIntersection(geometry.east(s), geometry.north(s),
+                            geometry.east(s + 1), geometry.north(s + 1), pe, pn, ne, nn, null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}